@@ -0,0 +1,46 @@
+package org.example.bench;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.example.chat.Message;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageCodecs;
+import org.example.chat.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+// Encode and decode throughput of each wire codec for a typical TEXT message.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"binary", "java"})
+    public String codecName;
+
+    @Param({"60", "500"})
+    public int textLength;
+
+    private MessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = MessageCodecs.forName(codecName);
+        message = new Message(MessageType.TEXT, "x".repeat(textLength), "alice", LocalDateTime.now(), "Chat_20000");
+        encoded = codec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(encoded, 0, encoded.length);
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.example.chat.Connection;
+import org.example.chat.Message;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageCodecs;
+import org.example.chat.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+// Round trip of one TEXT message through a pair of Connections: client send, server receive,
+// server send, client receive. Over a loopback socket or over in-memory pipes, which leaves out
+// the kernel and shows the cost of framing, buffering and the codec alone.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionBenchmark {
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    @Param({"loopback", "piped"})
+    public String transport;
+
+    @Param({"binary", "java"})
+    public String codecName;
+
+    private Connection client;
+    private Connection server;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<MessageCodec> codecs = List.of(MessageCodecs.forName(codecName));
+        Socket clientSocket;
+        CompletableFuture<Socket> serverSocket;
+        if (transport.equals("loopback")) {
+            try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                serverSocket = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return listener.accept();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                clientSocket = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+                serverSocket.join().setTcpNoDelay(true);
+            }
+            clientSocket.setTcpNoDelay(true);
+        } else {
+            PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+            PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+            clientSocket = new PipedSocket(clientIn, new PipedOutputStream(serverIn));
+            serverSocket = CompletableFuture.completedFuture(new PipedSocket(serverIn, new PipedOutputStream(clientIn)));
+        }
+        // Both ends take part in the codec handshake, so the server side accepts on its own thread
+        CompletableFuture<Connection> accepted = serverSocket.thenApplyAsync(socket -> {
+            try {
+                return Connection.accept(socket, codecs);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        client = new Connection(clientSocket, codecs);
+        server = accepted.join();
+        message = new Message(MessageType.TEXT, "Did anyone see the build failure on main this morning?", "alice", LocalDateTime.now(), "Chat_20000");
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException {
+        client.send(message);
+        server.send(server.receive());
+        return client.receive();
+    }
+
+    // A socket that is only a pair of in-memory streams; Connection uses nothing else
+    private static class PipedSocket extends Socket {
+        private final InputStream in;
+        private final OutputStream out;
+
+        PipedSocket(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.bench;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageType;
+import org.example.server.ChatServer;
+import org.example.server.ServerConfig;
+import org.example.server.net.SessionHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// One member of a room sends a TEXT message that ChatServer broadcasts to every member. Members
+// are in-process channels that take the encoded bytes of the frame, as a transport would.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final MessageCodec CODEC = new BinaryCodec();
+
+    @Param({"10", "100", "1000"})
+    public int members;
+
+    private SessionHandler sender;
+    private Message text;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        // Without a room executor the broadcast runs on the calling thread, where it is measured
+        ChatServer room = new ChatServer(1, "Chat_bench", ServerConfig.fromArgs(new String[]{"--history-on-join=0", "--user-rate=0"}), null, null, null);
+        for (int i = 0; i < members; i++) {
+            SessionHandler handler = room.newHandler(new SinkChannel(blackhole));
+            handler.onOpen();
+            handler.onMessage(new Message(MessageType.USER_NAME, "user" + i));
+            if (sender == null) {
+                sender = handler;
+            }
+        }
+        text = new Message(MessageType.TEXT, "Did anyone see the build failure on main this morning?", null, LocalDateTime.now(), null);
+    }
+
+    @Benchmark
+    public void broadcast() throws IOException {
+        sender.onMessage(text);
+    }
+
+    private static class SinkChannel implements MessageChannel {
+        private final Blackhole blackhole;
+
+        SinkChannel(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void send(Frame frame) throws IOException {
+            blackhole.consume(frame.buffer(CODEC));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
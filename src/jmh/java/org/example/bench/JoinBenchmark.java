@@ -0,0 +1,76 @@
+package org.example.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.example.chat.Connection;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+import org.example.server.MainServer;
+import org.example.server.ServerConfig;
+import org.openjdk.jmh.annotations.*;
+
+// End-to-end time for a new user to get from the MainServer lobby into an existing room: the
+// REQUEST_ACTION / CHAT_LIST / CHAT_SELECTED exchange and the room's NAME_REQUEST / NAME_ACCEPTED
+// handshake. With reconnect=true a client of a room with its own port opens a second connection
+// to that port, as clients did before the lobby connection was handed over to the room.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinBenchmark {
+    private static final int PORT = 12399;
+
+    @Param({"blocking", "nio"})
+    public String mode;
+
+    @Param({"ports", "shared"})
+    public String rooms;
+
+    @Param({"false", "true"})
+    public boolean reconnect;
+
+    private String roomKey;
+    private int nextUser;
+
+    @Setup
+    public void setUp() throws IOException {
+        new MainServer(ServerConfig.fromArgs(new String[]{
+                "--port=" + PORT, "--mode=" + mode, "--rooms=" + rooms, "--history-on-join=0"})).start();
+        Connection lobby = connect(PORT);
+        lobby.receive();
+        lobby.send(new Message(MessageType.CREATE_CHAT, "1"));
+        Message created = lobby.receive();
+        roomKey = String.valueOf(created.getChatRoomId());
+        lobby.close();
+    }
+
+    @Benchmark
+    public Message join() throws IOException {
+        Connection connection = connect(PORT);
+        try {
+            connection.receive();
+            connection.send(new Message(MessageType.JOIN_CHAT, "2"));
+            connection.receive();
+            connection.receive();
+            connection.send(new Message(MessageType.CHAT_SELECTED, roomKey));
+            connection.receive();
+            if (reconnect && "ports".equals(rooms)) {
+                connection.close();
+                connection = connect(Integer.parseInt(roomKey));
+            }
+            connection.receive();
+            connection.send(new Message(MessageType.USER_NAME, "user" + nextUser++));
+            return connection.receive();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Connection connect(int port) throws IOException {
+        return new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+    }
+}
@@ -2,12 +2,50 @@ package org.example;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 import org.example.chat.*;
 
 public class Client {
-    private Connection connection;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    // Lines beyond this many waiting for the terminal are skipped
+    private static final int CONSOLE_BACKLOG = 1000;
+    // Joins, leaves and renames shown one by one from a single presence delta; the rest are counted
+    private static final int SHOWN_PRESENCE_CHANGES = 10;
+    // First line of a presence delta or snapshot, as opposed to a plain list of names
+    private static final Pattern PRESENCE_HEADER = Pattern.compile("\\d+ \\d+|= \\d+");
+    // Attempts to take the session back after the connection drops, the n-th after n times the delay
+    private static final int RESUME_ATTEMPTS = 5;
+    private static final long RESUME_DELAY_MILLIS = 500;
+    // Where files from /get are saved
+    private static final Path DOWNLOADS = Path.of("downloads");
+    // Replaced when a dropped connection is resumed
+    private volatile Connection connection;
+    // Where the room was reached, to reconnect after a drop
+    private String roomAddress;
+    private int roomPort;
+    // Given by the room for resuming the session, null if the server does not offer it
+    private String resumeToken;
+    private int roomId;
+    private volatile boolean exiting;
+    // Files are sent one at a time, since the room tells uploads apart by their first chunk
+    private final AtomicBoolean uploading = new AtomicBoolean();
     private String userName;
+    // Names of the room's members by the ids the room announced for them
+    private final Map<Integer, String> names = new HashMap<>();
+    // Version of the room's membership the names are at
+    private volatile long presenceVersion;
+    // Set while a "/list since" asked for after a missed delta has not been answered
+    private volatile boolean presenceResync;
 
     public static void main(String[] args) {
         new Client().run();
@@ -28,6 +66,8 @@ public class Client {
 
         Socket socket = new Socket(serverAddress, serverPort);
         connection = new Connection(socket);
+        roomAddress = serverAddress;
+        roomPort = serverPort;
 
         while (true) {
             Message message = connection.receive();
@@ -50,13 +90,22 @@ public class Client {
                     break;
                 case CHAT_CREATED, CHAT_SELECTED:
                     System.out.println(message.getData());
-                    int chatPort = extractPortFromMessage(message.getData());
-                    connection.close();
-                    connectToChatServer(serverAddress, chatPort);
+                    if (message.getPort() != 0) {
+                        // The room is hosted on a room node, which is told the room id after connecting
+                        connection.close();
+                        String host = message.getHost() != null ? message.getHost() : serverAddress;
+                        connectToChatServer(host, message.getPort(), message.getChatRoomId());
+                        return;
+                    }
+                    // The server has handed this connection over to the room
+                    enterChat();
                     return;
                 case CHAT_LIST:
                     System.out.println(message.getData());
                     break;
+                case PING:
+                    connection.send(new Message(MessageType.PONG));
+                    break;
                 case PORT_REQUEST:
                     System.out.println(message.getData());
                     String portStr;
@@ -85,11 +134,22 @@ public class Client {
         }
     }
 
-    private void connectToChatServer(String serverAddress, int port) {
+    private void connectToChatServer(String serverAddress, int port, int roomId) {
         try {
             Socket socket = new Socket(serverAddress, port);
             connection = new Connection(socket);
+            roomAddress = serverAddress;
+            roomPort = port;
+            connection.send(new Message(MessageType.CHAT_SELECTED, String.valueOf(roomId)));
+        } catch (IOException e) {
+            System.out.println("Error connecting to chat server: " + e.getMessage());
+            return;
+        }
+        enterChat();
+    }
 
+    private void enterChat() {
+        try {
             // Perform handshake
             performHandshake();
 
@@ -106,7 +166,7 @@ public class Client {
                 }
             }
         } catch (IOException e) {
-            System.out.println("Error connecting to chat server: " + e.getMessage());
+            System.out.println("Error in chat: " + e.getMessage());
         }
     }
 
@@ -119,11 +179,16 @@ public class Client {
                 connection.send(new Message(MessageType.USER_NAME, userName));
             } else if (message.getType() == MessageType.NAME_ACCEPTED) {
                 System.out.println(message.getData());
+                names.put(message.getSenderId(), message.getSender());
                 break;
             } else if (message.getType() == MessageType.ERROR) {
                 System.out.println("Error: " + message.getData());
                 connection.close();
                 break;
+            } else if (message.getType() == MessageType.PRESENCE) {
+                // Changes sent to the room while joining; the snapshot after NAME_ACCEPTED has them
+            } else if (message.getType() == MessageType.PING) {
+                connection.send(new Message(MessageType.PONG));
             } else {
                 System.out.println("Unexpected message type: " + message.getType());
             }
@@ -141,8 +206,20 @@ public class Client {
                 System.out.println("Usage: /rename [new nickname]");
             }
         } else if (command.equalsIgnoreCase("/list")) {
-            connection.send(new Message(MessageType.COMMAND, "/list", userName));
+            // Only what changed since the names we already have
+            connection.send(new Message(MessageType.COMMAND, "/list since " + presenceVersion, userName));
+        } else if (command.equalsIgnoreCase("/history") || command.startsWith("/history ") || command.startsWith("/search ")) {
+            connection.send(new Message(MessageType.COMMAND, command, userName));
+        } else if (command.equalsIgnoreCase("/stats")) {
+            connection.send(new Message(MessageType.COMMAND, "/stats", userName));
+        } else if (command.startsWith("/send ")) {
+            sendFile(command.substring(6).trim());
+        } else if (command.equalsIgnoreCase("/files")) {
+            connection.send(new Message(MessageType.COMMAND, "/files", userName));
+        } else if (command.startsWith("/get ")) {
+            connection.send(new Message(MessageType.FILE_REQUEST, command.substring(5).trim()));
         } else if (command.equalsIgnoreCase("/exit")) {
+            exiting = true;
             connection.close();
             System.exit(0);
         } else {
@@ -150,39 +227,300 @@ public class Client {
         }
     }
 
+    // Streams the file from a thread of its own, so messages typed meanwhile go out between its chunks.
+    // The room announces it to everyone once the last chunk is in.
+    private void sendFile(String pathText) {
+        Path path;
+        try {
+            path = Path.of(pathText);
+        } catch (InvalidPathException e) {
+            path = null;
+        }
+        if (path == null || !Files.isRegularFile(path)) {
+            System.out.println("No such file: " + pathText);
+            return;
+        }
+        if (!uploading.compareAndSet(false, true)) {
+            System.out.println("Wait until the current file has been sent.");
+            return;
+        }
+        Path file = path;
+        Thread upload = new Thread(() -> {
+            try {
+                FileChannel channel = FileChannel.open(file);
+                long size = channel.size();
+                connection.sendFile(new FileTransfer("0 " + size + " " + file.getFileName(), channel, 0, size));
+            } catch (IOException e) {
+                System.out.println("Error sending file: " + e.getMessage());
+            } finally {
+                uploading.set(false);
+            }
+        }, "upload");
+        upload.setDaemon(true);
+        upload.start();
+    }
+
     private void showHelp() {
         System.out.println("Available commands:");
         System.out.println("/help           - Show this help message");
         System.out.println("/rename [name]  - Change your nickname");
         System.out.println("/list           - List users in the current chat room");
+        System.out.println("/history [n]    - Show the last n messages");
+        System.out.println("/history since [time] - Show messages since a time, e.g. 2024-10-01T18:30");
+        System.out.println("/search [words] - Find messages with all the words; add from:[name], since:[time], until:[time]");
+        System.out.println("/stats          - Show room and server statistics");
+        System.out.println("/send [path]    - Share a file with the room");
+        System.out.println("/files          - List the files shared in the room");
+        System.out.println("/get [id]       - Download a shared file into the downloads directory");
         System.out.println("/exit           - Exit the chat");
     }
 
     private class ReaderThread extends Thread {
+        // Output goes through its own thread so reading the socket never waits for the terminal
+        private final ConsoleWriter console = new ConsoleWriter(CONSOLE_BACKLOG);
+        private final StringBuilder line = new StringBuilder();
+        // Highest sequence of a live message seen, where a resumed session continues
+        private long lastSequence;
+        // Live messages up to this sequence were already replayed by the room on (re)joining
+        private long replayedUpTo;
+        // Files being downloaded, by the description their chunks carry
+        private final Map<String, FileChannel> downloads = new HashMap<>();
+
         public void run() {
             while (true) {
                 Message message = connection.receive();
                 if (message == null) {
+                    if (!exiting && resumeToken != null && resumeSession()) {
+                        continue;
+                    }
                     break;
                 }
                 switch (message.getType()) {
+                    case RESUME:
+                        resumeToken = message.getData();
+                        roomId = message.getChatRoomId();
+                        lastSequence = message.getSequence();
+                        replayedUpTo = message.getSequence();
+                        break;
                     case TEXT:
-                        String time = message.getTimestamp().format(DateTimeFormatter.ofPattern("HH:mm:ss"));
-                        System.out.println("[" + time + "] " + message.getSender() + ": " + message.getData());
+                        if (message.getSequence() != 0) {
+                            if (message.getSequence() <= replayedUpTo) {
+                                break;
+                            }
+                            lastSequence = Math.max(lastSequence, message.getSequence());
+                        }
+                        // Live messages carry only the sender's id, history still has the name
+                        String sender = message.getSender() != null ? message.getSender() : names.get(message.getSenderId());
+                        line.setLength(0);
+                        line.append('[');
+                        TIME_FORMAT.formatTo(message.getTimestamp(), line);
+                        line.append("] ").append(sender).append(": ").append(message.getData());
+                        console.println(line);
+                        break;
+                    case PRESENCE:
+                        applyPresence(message.getData(), true);
+                        break;
+                    case PING:
+                        // The server checks that a quiet connection is still alive
+                        try {
+                            connection.send(new Message(MessageType.PONG));
+                        } catch (IOException e) {
+                            // The next receive notices the connection is gone
+                        }
+                        break;
+                    case FILE_SHARED:
+                        // "<id> <size> <name>"
+                        String[] file = message.getData().split(" ", 3);
+                        String uploader = message.getSender() != null ? message.getSender() : names.get(message.getSenderId());
+                        line.setLength(0);
+                        console.println(line.append(uploader).append(" shared ").append(file[2]).append(" (").append(file[1])
+                                .append(" bytes), type /get ").append(file[0]).append(" to download it"));
+                        break;
+                    case FILE_CHUNK:
+                        receiveChunk(message);
                         break;
-                    case USER_ADDED, USER_REMOVED, NICKNAME_CHANGED, HELP_MESSAGE:
-                        System.out.println(message.getData());
+                    case FILE_ACK:
+                        // How much of the file being sent the room has
+                        connection.acknowledgeFile(message.getData(), message.getSequence());
+                        break;
+                    case HELP_MESSAGE, STATS, SEARCH_RESULT:
+                        console.println(message.getData());
                         break;
                     case USER_LIST:
-                        System.out.println("Users in chat: " + message.getData());
+                        // "/list since" gets presence text, a plain "/list" just the names
+                        line.setLength(0);
+                        if (isPresence(message.getData())) {
+                            presenceResync = false;
+                            applyPresence(message.getData(), false);
+                            console.println(line.append("Users in chat: ").append(String.join(", ", names.values())));
+                        } else {
+                            console.println(line.append("Users in chat: ").append(message.getData()));
+                        }
                         break;
                     case ERROR:
-                        System.out.println("Error: " + message.getData());
+                        line.setLength(0);
+                        console.println(line.append("Error: ").append(message.getData()));
                         break;
                     default:
-                        System.out.println("Unexpected message type: " + message.getType());
+                        line.setLength(0);
+                        console.println(line.append("Unexpected message type: ").append(message.getType()));
+                }
+            }
+        }
+
+        // Reconnects to where the room was reached and takes the session back. The room replays what was
+        // missed, so the reader simply continues on the new connection.
+        private boolean resumeSession() {
+            console.println("Connection lost, reconnecting...");
+            for (int attempt = 1; attempt <= RESUME_ATTEMPTS && !exiting; attempt++) {
+                try {
+                    Thread.sleep(RESUME_DELAY_MILLIS * attempt);
+                    Connection resumed = new Connection(new Socket(roomAddress, roomPort));
+                    resumed.send(Message.resumeRequest(resumeToken, roomId, lastSequence));
+                    Message reply = resumed.receive();
+                    // A lobby greets with REQUEST_ACTION before it hands the connection to the room
+                    if (reply != null && reply.getType() == MessageType.REQUEST_ACTION) {
+                        reply = resumed.receive();
+                    }
+                    if (reply != null && reply.getType() == MessageType.RESUME) {
+                        replayedUpTo = reply.getSequence();
+                        lastSequence = Math.max(lastSequence, replayedUpTo);
+                        connection = resumed;
+                        console.println("Reconnected.");
+                        return true;
+                    }
+                    resumed.close();
+                    if (reply != null && reply.getType() == MessageType.ERROR) {
+                        line.setLength(0);
+                        console.println(line.append("Error: ").append(reply.getData()));
+                        return false;
+                    }
+                } catch (IOException e) {
+                    // The server may not be reachable yet, try again
+                } catch (InterruptedException e) {
+                    return false;
                 }
             }
+            return false;
+        }
+
+        // Chunks of a file arrive in order; the first one creates the file in the downloads directory. Each
+        // one written is acknowledged, so the room sends more.
+        private void receiveChunk(Message chunk) {
+            String[] file = chunk.getData().split(" ", 3);
+            FileChannel channel = downloads.get(chunk.getData());
+            Path path = DOWNLOADS.resolve(Path.of(file[2]).getFileName());
+            try {
+                if (chunk.getSequence() == 0) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    Files.createDirectories(DOWNLOADS);
+                    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    downloads.put(chunk.getData(), channel);
+                }
+                if (channel == null) {
+                    return;
+                }
+                ByteBuffer payload = ByteBuffer.wrap(chunk.getPayload());
+                while (payload.hasRemaining()) {
+                    channel.write(payload, chunk.getSequence() + payload.position());
+                }
+                long received = chunk.getSequence() + payload.capacity();
+                acknowledge(chunk, received);
+                if (received >= Long.parseLong(file[1])) {
+                    downloads.remove(chunk.getData()).close();
+                    line.setLength(0);
+                    console.println(line.append("Saved ").append(file[2]).append(" to ").append(path.toAbsolutePath()));
+                }
+            } catch (IOException e) {
+                closeQuietly(downloads.remove(chunk.getData()));
+                acknowledge(chunk, FileTransfer.CANCELLED);
+                line.setLength(0);
+                console.println(line.append("Error saving ").append(file[2]).append(": ").append(e.getMessage()));
+            }
+        }
+
+        private void acknowledge(Message chunk, long received) {
+            try {
+                connection.send(Message.fileAck(chunk.getData(), received));
+            } catch (IOException e) {
+                // The next receive notices the connection is gone
+            }
+        }
+
+        private void closeQuietly(FileChannel channel) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                // Already reported the failure that led here
+            }
+        }
+
+        // A "<from> <to>" line, then "+id name", "-id name" or "~id name" per change. A snapshot of the whole
+        // room starts with "= <to>" instead. Changes the names are already past are skipped, and a delta
+        // that does not start at our version means one went missing, so it is dropped and the changes
+        // since our version are asked for again.
+        private void applyPresence(String data, boolean show) {
+            String[] lines = data.split("\n");
+            boolean snapshot = lines[0].charAt(0) == '=';
+            long to = Long.parseLong(lines[0].substring(lines[0].indexOf(' ') + 1));
+            if (to < presenceVersion || (!snapshot && to == presenceVersion)) {
+                return;
+            }
+            if (!snapshot && Long.parseLong(lines[0].substring(0, lines[0].indexOf(' '))) != presenceVersion) {
+                requestPresence();
+                return;
+            }
+            if (snapshot) {
+                names.clear();
+                show = false;
+                presenceResync = false;
+            }
+            for (int i = 1; i < lines.length; i++) {
+                String entry = lines[i];
+                int separator = entry.indexOf(' ');
+                int id = Integer.parseInt(entry.substring(1, separator));
+                String name = entry.substring(separator + 1);
+                line.setLength(0);
+                if (entry.charAt(0) == '+') {
+                    names.put(id, name);
+                    line.append(name).append(" has joined the chat.");
+                } else if (entry.charAt(0) == '-') {
+                    names.remove(id);
+                    line.append(name).append(" has left the chat.");
+                } else {
+                    String oldName = names.put(id, name);
+                    line.append(oldName != null ? oldName : "A user").append(" changed nickname to ").append(name);
+                }
+                if (show && i <= SHOWN_PRESENCE_CHANGES) {
+                    console.println(line);
+                }
+            }
+            if (show && lines.length - 1 > SHOWN_PRESENCE_CHANGES) {
+                line.setLength(0);
+                console.println(line.append("... and ").append(lines.length - 1 - SHOWN_PRESENCE_CHANGES).append(" more joins, leaves and renames"));
+            }
+            presenceVersion = to;
+        }
+
+        private void requestPresence() {
+            if (presenceResync) {
+                return;
+            }
+            presenceResync = true;
+            try {
+                connection.send(new Message(MessageType.COMMAND, "/list since " + presenceVersion, userName));
+            } catch (IOException e) {
+                // The next receive notices the connection is gone
+            }
+        }
+
+        private boolean isPresence(String data) {
+            int end = data.indexOf('\n');
+            return PRESENCE_HEADER.matcher(end < 0 ? data : data.substring(0, end)).matches();
         }
     }
 
@@ -195,18 +533,4 @@ public class Client {
         System.out.println("Enter server port:");
         return ConsoleHelper.readInt();
     }
-
-    private int extractPortFromMessage(String message) {
-        String[] tokens = message.split(" ");
-        for (int i = 0; i < tokens.length; i++) {
-            if (tokens[i].equalsIgnoreCase("port") && i + 1 < tokens.length) {
-                try {
-                    return Integer.parseInt(tokens[i + 1].replaceAll("[^0-9]", ""));
-                } catch (NumberFormatException e) {
-                    return -1;
-                }
-            }
-        }
-        return -1;
-    }
 }
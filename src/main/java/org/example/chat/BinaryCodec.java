@@ -0,0 +1,229 @@
+package org.example.chat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+// Compact format: type ordinal, a varint bit set of present fields, then each present field in order.
+// Strings are a varint byte length followed by UTF-8, ids and sequences are varints and the timestamp
+// is 8 bytes of epoch millis. Flags below 128 take one byte, as in the original single-byte layout.
+public class BinaryCodec implements MessageCodec {
+    public static final byte ID = 1;
+
+    private static final int HAS_DATA = 1;
+    private static final int HAS_SENDER = 1 << 1;
+    private static final int HAS_TIMESTAMP = 1 << 2;
+    private static final int HAS_CHAT_ROOM = 1 << 3;
+    private static final int HAS_SENDER_ID = 1 << 4;
+    private static final int HAS_CHAT_ROOM_ID = 1 << 5;
+    private static final int HAS_HOST = 1 << 6;
+    private static final int HAS_PORT = 1 << 7;
+    private static final int HAS_SEQUENCE = 1 << 8;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] data = utf8(message.getData());
+        byte[] sender = utf8(message.getSender());
+        byte[] chatRoom = utf8(message.getChatRoom());
+        byte[] host = utf8(message.getHost());
+        int port = message.getPort();
+        LocalDateTime timestamp = message.getTimestamp();
+        int senderId = message.getSenderId();
+        int chatRoomId = message.getChatRoomId();
+        long sequence = message.getSequence();
+
+        int flags = (data != null ? HAS_DATA : 0)
+                | (sender != null ? HAS_SENDER : 0)
+                | (timestamp != null ? HAS_TIMESTAMP : 0)
+                | (chatRoom != null ? HAS_CHAT_ROOM : 0)
+                | (senderId != 0 ? HAS_SENDER_ID : 0)
+                | (chatRoomId != 0 ? HAS_CHAT_ROOM_ID : 0)
+                | (host != null ? HAS_HOST : 0)
+                | (port != 0 ? HAS_PORT : 0)
+                | (sequence != 0 ? HAS_SEQUENCE : 0);
+        int length = 1 + varIntLength(flags) + stringLength(data) + stringLength(sender) + stringLength(chatRoom) + (timestamp != null ? 8 : 0)
+                + (senderId != 0 ? varIntLength(senderId) : 0) + (chatRoomId != 0 ? varIntLength(chatRoomId) : 0)
+                + stringLength(host) + (port != 0 ? varIntLength(port) : 0) + (sequence != 0 ? varLongLength(sequence) : 0);
+
+        byte[] frame = new byte[length];
+        int pos = 0;
+        frame[pos++] = (byte) message.getType().ordinal();
+        pos = writeVarInt(frame, pos, flags);
+        pos = writeString(frame, pos, data);
+        pos = writeString(frame, pos, sender);
+        if (senderId != 0) {
+            pos = writeVarInt(frame, pos, senderId);
+        }
+        if (timestamp != null) {
+            long millis = timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame[pos++] = (byte) (millis >>> shift);
+            }
+        }
+        pos = writeString(frame, pos, chatRoom);
+        if (chatRoomId != 0) {
+            pos = writeVarInt(frame, pos, chatRoomId);
+        }
+        pos = writeString(frame, pos, host);
+        if (port != 0) {
+            pos = writeVarInt(frame, pos, port);
+        }
+        if (sequence != 0) {
+            writeVarLong(frame, pos, sequence);
+        }
+        return frame;
+    }
+
+    @Override
+    public Message decode(byte[] frame, int offset, int length) throws IOException {
+        Reader reader = new Reader(frame, offset, offset + length);
+        int ordinal = reader.readByte();
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown message type: " + ordinal);
+        }
+        int flags = reader.readVarInt();
+        String data = (flags & HAS_DATA) != 0 ? reader.readString() : null;
+        String sender = (flags & HAS_SENDER) != 0 ? reader.readString() : null;
+        int senderId = (flags & HAS_SENDER_ID) != 0 ? reader.readVarInt() : 0;
+        LocalDateTime timestamp = null;
+        if ((flags & HAS_TIMESTAMP) != 0) {
+            timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(reader.readLong()), ZoneId.systemDefault());
+        }
+        String chatRoom = (flags & HAS_CHAT_ROOM) != 0 ? reader.readString() : null;
+        int chatRoomId = (flags & HAS_CHAT_ROOM_ID) != 0 ? reader.readVarInt() : 0;
+        String host = (flags & HAS_HOST) != 0 ? reader.readString() : null;
+        int port = (flags & HAS_PORT) != 0 ? reader.readVarInt() : 0;
+        long sequence = (flags & HAS_SEQUENCE) != 0 ? reader.readVarLong() : 0;
+        return new Message(TYPES[ordinal], data, sender, senderId, timestamp, chatRoom, chatRoomId, host, port, sequence);
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int stringLength(byte[] value) {
+        return value != null ? varIntLength(value.length) + value.length : 0;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int varLongLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int writeString(byte[] frame, int pos, byte[] value) {
+        if (value == null) {
+            return pos;
+        }
+        pos = writeVarInt(frame, pos, value.length);
+        System.arraycopy(value, 0, frame, pos, value.length);
+        return pos + value.length;
+    }
+
+    private static int writeVarInt(byte[] frame, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int writeVarLong(byte[] frame, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static class Reader {
+        private final byte[] frame;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] frame, int pos, int end) {
+            this.frame = frame;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= end) {
+                throw new IOException("Truncated message frame");
+            }
+            return frame[pos++] & 0xFF;
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28) {
+                    throw new IOException("Malformed varint");
+                }
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 63) {
+                    throw new IOException("Malformed varint");
+                }
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > end - pos) {
+                throw new IOException("Truncated message frame");
+            }
+            String value = new String(frame, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
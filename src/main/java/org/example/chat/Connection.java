@@ -1,46 +1,219 @@
 package org.example.chat;
 
-import java.io.Closeable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Connection implements Closeable {
+public class Connection implements MessageChannel {
     final private Socket socket;
-    final private ObjectOutputStream out;
-    final private ObjectInputStream in;
+    final private DataOutputStream out;
+    final private DataInputStream in;
+    final private MessageCodec codec;
+    // Locks instead of synchronized so a blocked virtual thread does not pin its carrier
+    final private Lock sendLock = new ReentrantLock();
+    final private Lock receiveLock = new ReentrantLock();
+    private volatile boolean closed;
+    // The file sendFile is sending, for acknowledgements read by another thread
+    private volatile FileTransfer sending;
+    // Only changed while holding the matching lock
+    private volatile long bytesIn;
+    private volatile long bytesOut;
 
-    public Connection(Socket socket) {
+    public Connection(Socket socket) throws IOException {
+        this(socket, MessageCodecs.preferred());
+    }
+
+    // Client side: offers the codecs in order of preference and uses the one the server picks
+    public Connection(Socket socket, List<MessageCodec> offered) throws IOException {
+        this.socket = socket;
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out.write(MessageCodecs.hello(offered));
+        out.flush();
+        codec = MessageCodecs.forId(in.readByte());
+    }
+
+    private Connection(Socket socket, DataOutputStream out, DataInputStream in, MessageCodec codec) {
         this.socket = socket;
+        this.out = out;
+        this.in = in;
+        this.codec = codec;
+    }
+
+    // Server side: reads the client's offer and answers with the first supported codec
+    public static Connection accept(Socket socket, List<MessageCodec> supported) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        byte[] header = new byte[MessageCodecs.HELLO_HEADER_LENGTH];
+        in.readFully(header);
+        int count = MessageCodecs.readHelloHeader(header[0], header[1], header[2]);
+        byte[] offered = new byte[count];
+        in.readFully(offered);
+        MessageCodec codec = MessageCodecs.choose(supported, offered, 0, count);
+        out.writeByte(codec != null ? codec.getId() : MessageCodecs.NONE);
+        out.flush();
+        if (codec == null) {
+            socket.close();
+            throw new IOException("Client offered no supported codec");
+        }
+        return new Connection(socket, out, in, codec);
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public void send(Frame frame) throws IOException {
+        sendLock.lock();
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            frame.writeTo(out, codec);
+            out.flush();
+            bytesOut += frame.length(codec);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    // Writes all frames with as few system calls as possible: a single gathering write when the
+    // socket has a channel, otherwise one flush of the buffered stream.
+    public void send(List<Frame> frames) throws IOException {
+        sendLock.lock();
+        try {
+            SocketChannel channel = socket.getChannel();
+            if (channel != null) {
+                ByteBuffer[] buffers = new ByteBuffer[frames.size()];
+                long remaining = 0;
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = frames.get(i).buffer(codec);
+                    remaining += buffers[i].remaining();
+                }
+                bytesOut += remaining;
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+            } else {
+                for (Frame frame : frames) {
+                    frame.writeTo(out, codec);
+                    bytesOut += frame.length(codec);
+                }
+                out.flush();
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    // Sends the message and the raw bytes after it as one data frame
+    public void send(Message message, byte[] payload) throws IOException {
+        sendLock.lock();
+        try {
+            ByteBuffer header = MessageFrames.dataHeader(codec.encode(message), payload.length);
+            out.write(header.array(), header.position(), header.remaining());
+            out.write(payload);
+            out.flush();
+            bytesOut += header.remaining() + payload.length;
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    // Sends the whole file on the calling thread, one chunk at a time, so messages from other threads get
+    // in between chunks. Waits whenever the receiver has fallen a window behind.
+    @Override
+    public void sendFile(FileTransfer transfer) throws IOException {
+        sending = transfer;
+        try {
+            while (transfer.hasMore()) {
+                if (closed) {
+                    throw new IOException("Connection is closed");
+                }
+                transfer.awaitWindow();
+                sendChunk(transfer);
+            }
+        } finally {
+            sending = null;
+            transfer.close();
+        }
+    }
+
+    @Override
+    public void acknowledgeFile(String description, long received) {
+        FileTransfer transfer = sending;
+        if (transfer != null && transfer.getDescription().equals(description)) {
+            transfer.acknowledge(received);
         }
     }
 
-    public void send(Message message) throws IOException {
-        synchronized (out) {
-            out.writeObject(message);
+    // The file bytes go straight from the file to the socket when the socket has a channel
+    public void sendChunk(FileTransfer transfer) throws IOException {
+        sendLock.lock();
+        try {
+            long start = transfer.getPosition();
+            ByteBuffer header = transfer.startChunk(codec);
+            int headerLength = header.remaining();
+            out.write(header.array(), header.position(), headerLength);
+            out.flush();
+            SocketChannel channel = socket.getChannel();
+            WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+            if (!transfer.writeChunk(target)) {
+                throw new IOException("File ended before the transfer did");
+            }
+            out.flush();
+            bytesOut += headerLength + transfer.getPosition() - start;
+        } finally {
+            sendLock.unlock();
         }
     }
 
+    @Override
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
     public Message receive() {
         Message message = null;
         try {
-            synchronized (in) {
-                message = (Message) in.readObject();
+            receiveLock.lock();
+            try {
+                int header = in.readInt();
+                int length = MessageFrames.frameLength(header);
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                message = MessageFrames.decode(codec, header, frame, 0, length);
+                bytesIn += MessageFrames.HEADER_LENGTH + length;
+            } finally {
+                receiveLock.unlock();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                ConsoleHelper.writeMessage("An error occurred while receiving a message.");
             }
-        } catch (IOException | ClassNotFoundException e) {
-            ConsoleHelper.writeMessage("An error occurred while receiving a message.");
         }
         return message;
     }
 
     @Override
     public void close() {
+        closed = true;
+        FileTransfer transfer = sending;
+        if (transfer != null) {
+            transfer.acknowledge(FileTransfer.CANCELLED);
+        }
         try {
             in.close();
             out.close();
@@ -0,0 +1,81 @@
+package org.example.chat;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Prints lines on its own thread, so whoever produces them never waits for the terminal. Lines
+// that pile up while the terminal is busy are written with a single flush, and when more than
+// maxBacklog are waiting the oldest are dropped and reported as one "skipped" line instead.
+public class ConsoleWriter {
+    private final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out)), 64 * 1024);
+    private final int maxBacklog;
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int skipped;
+
+    public ConsoleWriter(int maxBacklog) {
+        this.maxBacklog = maxBacklog;
+        Thread thread = new Thread(this::writeLoop, "console-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Copies the line, so a reused builder can be passed in
+    public void println(CharSequence line) {
+        String text = line.toString();
+        lock.lock();
+        try {
+            if (pending.size() >= maxBacklog) {
+                pending.poll();
+                skipped++;
+            }
+            pending.add(text);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            int skippedLines;
+            lock.lock();
+            try {
+                while (pending.isEmpty()) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                batch.addAll(pending);
+                pending.clear();
+                skippedLines = skipped;
+                skipped = 0;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (skippedLines > 0) {
+                    out.write("... " + skippedLines + " lines skipped ...\n");
+                }
+                for (String line : batch) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+            } catch (IOException e) {
+                return;
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.chat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+// A file, or the part of one from a position on, sent as FILE_CHUNK data frames. Every chunk is
+// a small header message followed by bytes that go from the file to the socket with transferTo,
+// so they are never encoded and, on a socket channel, never copied onto the heap.
+//
+// Chat messages on the same connection are not held up: channels write a chunk only while no
+// messages are waiting, and the sender stays at most WINDOW bytes ahead of what the receiver has
+// confirmed with FILE_ACK, so chunks never fill the socket buffers in front of later messages.
+public class FileTransfer implements Closeable {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    // Transfers a queued channel takes at once; further ones are refused until one is done
+    public static final int MAX_QUEUED = 4;
+    public static final int WINDOW = 4 * CHUNK_SIZE;
+    // Acknowledged instead of an offset when the receiver gives the transfer up
+    public static final long CANCELLED = -1;
+    private static final long ACK_TIMEOUT_MILLIS = 30000;
+
+    // Data of every chunk's header message: "<id> <size> <name>"
+    private final String description;
+    private final FileChannel file;
+    private final long end;
+    private long position;
+    private long chunkEnd;
+    private boolean started;
+    // Guarded by this, set by the thread reading the receiver's acknowledgements
+    private long acknowledged;
+    private boolean cancelled;
+
+    public FileTransfer(String description, FileChannel file, long position, long end) {
+        this.description = description;
+        this.file = file;
+        this.position = position;
+        this.end = end;
+        this.acknowledged = position;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    // An empty file is still sent as one empty chunk
+    public boolean hasMore() {
+        return !started || position < end;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public synchronized void acknowledge(long received) {
+        if (received == CANCELLED) {
+            cancelled = true;
+        } else {
+            acknowledged = Math.max(acknowledged, received);
+        }
+        notifyAll();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Whether the next chunk fits into the window; asked by the sending thread only
+    public synchronized boolean canSend() {
+        return !cancelled && position - acknowledged < WINDOW;
+    }
+
+    // For senders with a thread of their own: blocks until the next chunk fits into the window
+    public synchronized void awaitWindow() throws IOException {
+        long deadline = System.currentTimeMillis() + ACK_TIMEOUT_MILLIS;
+        while (!canSend()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (cancelled || remaining <= 0) {
+                throw new IOException(cancelled ? "The transfer was cancelled" : "The receiver stopped acknowledging");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+
+    // Begins the next chunk and returns the part of its frame before the file bytes
+    public ByteBuffer startChunk(MessageCodec codec) throws IOException {
+        started = true;
+        chunkEnd = Math.min(end, position + CHUNK_SIZE);
+        Message header = Message.fileChunk(description, position);
+        return MessageFrames.dataHeader(codec.encode(header), (int) (chunkEnd - position));
+    }
+
+    // Copies the rest of the current chunk into the target. False if a non-blocking target took
+    // only part of it; the caller tries again when the target is writable.
+    public boolean writeChunk(WritableByteChannel target) throws IOException {
+        while (position < chunkEnd) {
+            long written = file.transferTo(position, chunkEnd - position, target);
+            if (written <= 0) {
+                return false;
+            }
+            position += written;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("Error closing file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.chat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A message together with its encoded, length-prefixed bytes. The bytes are produced once per codec
+// and then shared read-only by every connection the frame is sent to.
+public final class Frame {
+    private final Message message;
+    private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(MessageCodecs.ID_LIMIT);
+
+    public Frame(Message message) {
+        this.message = message;
+    }
+
+    // Wraps length-prefixed bytes already encoded with the codec, e.g. read back from a log,
+    // so recipients using that codec get them without re-encoding
+    public static Frame ofEncoded(MessageCodec codec, byte[] bytes) throws IOException {
+        Frame frame = new Frame(codec.decode(bytes, MessageFrames.HEADER_LENGTH, bytes.length - MessageFrames.HEADER_LENGTH));
+        frame.encoded.set(codec.getId(), bytes);
+        return frame;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public int length(MessageCodec codec) throws IOException {
+        return bytes(codec).length;
+    }
+
+    public ByteBuffer buffer(MessageCodec codec) throws IOException {
+        return ByteBuffer.wrap(bytes(codec)).asReadOnlyBuffer();
+    }
+
+    public void writeTo(OutputStream out, MessageCodec codec) throws IOException {
+        out.write(bytes(codec));
+    }
+
+    private byte[] bytes(MessageCodec codec) throws IOException {
+        byte[] bytes = encoded.get(codec.getId());
+        if (bytes == null) {
+            // Racing encoders produce identical bytes, so whichever wins is fine
+            byte[] body = codec.encode(message);
+            bytes = ByteBuffer.allocate(MessageFrames.HEADER_LENGTH + body.length).putInt(body.length).put(body).array();
+            encoded.set(codec.getId(), bytes);
+        }
+        return bytes;
+    }
+}
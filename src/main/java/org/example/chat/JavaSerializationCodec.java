@@ -0,0 +1,48 @@
+package org.example.chat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+// The original format: one standalone Java serialization stream per message. Kept as a fallback.
+public class JavaSerializationCodec implements MessageCodec {
+    public static final byte ID = 0;
+    // Only a Message and what its fields hold may be read back, so a peer cannot have the other side
+    // build arbitrary serializable objects. LocalDateTime is written as a java.time.Ser.
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=4;maxrefs=64;maxarray=0;maxbytes=" + MessageFrames.MAX_FRAME_LENGTH
+                    + ";org.example.chat.Message;org.example.chat.MessageType;java.lang.Enum"
+                    + ";java.time.LocalDateTime;java.time.Ser;!*");
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "java";
+    }
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] frame, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(frame, offset, length))) {
+            in.setObjectInputFilter(FILTER);
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Malformed message frame", e);
+        }
+    }
+}
@@ -4,11 +4,25 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 public class Message implements Serializable {
+    // Fixed, so fields added later leave the java codec readable between client and server builds
+    private static final long serialVersionUID = 1L;
+
     private final MessageType type;
     private final String data;
     private final String sender;
     private final LocalDateTime timestamp;
     private final String chatRoom;
+    // Short ids the room assigned to the sender and to itself, 0 when absent. Once a name has been
+    // announced together with its id, messages may carry the id alone.
+    private final int senderId;
+    private final int chatRoomId;
+    // Where to connect for the room when it is not on the current connection, null and 0 otherwise
+    private final String host;
+    private final int port;
+    // Position of a live broadcast in its room, 0 for everything else
+    private final long sequence;
+    // Raw bytes that followed the message in a data frame, e.g. part of a file; never encoded by a codec
+    private transient byte[] payload;
 
     public Message(MessageType type) {
         this(type, null, null, null, null);
@@ -23,11 +37,55 @@ public class Message implements Serializable {
     }
 
     public Message(MessageType type, String data, String sender, LocalDateTime timestamp, String chatRoom) {
+        this(type, data, sender, 0, timestamp, chatRoom, 0);
+    }
+
+    public Message(MessageType type, String data, String sender, int senderId, LocalDateTime timestamp, String chatRoom, int chatRoomId) {
+        this(type, data, sender, senderId, timestamp, chatRoom, chatRoomId, null, 0);
+    }
+
+    public Message(MessageType type, String data, String sender, int senderId, LocalDateTime timestamp, String chatRoom, int chatRoomId,
+                   String host, int port) {
+        this(type, data, sender, senderId, timestamp, chatRoom, chatRoomId, host, port, 0);
+    }
+
+    public Message(MessageType type, String data, String sender, int senderId, LocalDateTime timestamp, String chatRoom, int chatRoomId,
+                   String host, int port, long sequence) {
         this.type = type;
         this.data = data;
         this.sender = sender;
+        this.senderId = senderId;
         this.timestamp = timestamp;
         this.chatRoom = chatRoom;
+        this.chatRoomId = chatRoomId;
+        this.host = host;
+        this.port = port;
+        this.sequence = sequence;
+    }
+
+    // A live TEXT broadcast, which names its sender by id alone
+    public static Message broadcast(String data, int senderId, LocalDateTime timestamp, int chatRoomId, long sequence) {
+        return new Message(MessageType.TEXT, data, null, senderId, timestamp, null, chatRoomId, null, 0, sequence);
+    }
+
+    // Client asking to take its session back, with the newest sequence it saw
+    public static Message resumeRequest(String token, int chatRoomId, long lastSequence) {
+        return new Message(MessageType.RESUME, token, null, 0, null, null, chatRoomId, null, 0, lastSequence);
+    }
+
+    // Room handing out or confirming a session token, with the room's newest sequence
+    public static Message resumeToken(String token, String userName, int userId, String chatRoom, int chatRoomId, long newest) {
+        return new Message(MessageType.RESUME, token, userName, userId, null, chatRoom, chatRoomId, null, 0, newest);
+    }
+
+    // Header of a data frame carrying the part of a file that starts at the position
+    public static Message fileChunk(String description, long position) {
+        return new Message(MessageType.FILE_CHUNK, description, null, 0, null, null, 0, null, 0, position);
+    }
+
+    // How many bytes of a file have arrived, or FileTransfer.CANCELLED
+    public static Message fileAck(String fileId, long received) {
+        return new Message(MessageType.FILE_ACK, fileId, null, 0, null, null, 0, null, 0, received);
     }
 
     public MessageType getType() {
@@ -42,6 +100,10 @@ public class Message implements Serializable {
         return sender;
     }
 
+    public int getSenderId() {
+        return senderId;
+    }
+
     public LocalDateTime getTimestamp() {
         return timestamp;
     }
@@ -49,4 +111,29 @@ public class Message implements Serializable {
     public String getChatRoom() {
         return chatRoom;
     }
+
+    public int getChatRoomId() {
+        return chatRoomId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Null unless the message arrived in a data frame
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
 }
@@ -0,0 +1,41 @@
+package org.example.chat;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface MessageChannel extends Closeable {
+    default void send(Message message) throws IOException {
+        send(new Frame(message));
+    }
+
+    // Broadcasts hand the same frame to every recipient, so it is encoded at most once per codec
+    void send(Frame frame) throws IOException;
+
+    // Sends a file as FILE_CHUNK data frames, queued behind waiting messages where the channel has a
+    // queue. The channel closes the transfer once it is done or dropped.
+    default void sendFile(FileTransfer transfer) throws IOException {
+        transfer.close();
+        throw new IOException("This connection cannot send files");
+    }
+
+    // The receiver has the file of the transfer being sent up to the offset, or gave it up
+    default void acknowledgeFile(String description, long received) {
+    }
+
+    // Bytes received and sent so far, framing included; 0 where the channel does not count them
+    default long getBytesIn() {
+        return 0;
+    }
+
+    default long getBytesOut() {
+        return 0;
+    }
+
+    // Closes at once and drops whatever is still queued, for peers that are gone
+    default void abort() {
+        close();
+    }
+
+    @Override
+    void close();
+}
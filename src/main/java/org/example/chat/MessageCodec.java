@@ -0,0 +1,15 @@
+package org.example.chat;
+
+import java.io.IOException;
+
+// Turns a Message into the body of one frame and back. The frame length is written by the caller.
+public interface MessageCodec {
+    // Sent during negotiation, must be unique among codecs
+    byte getId();
+
+    String getName();
+
+    byte[] encode(Message message) throws IOException;
+
+    Message decode(byte[] frame, int offset, int length) throws IOException;
+}
@@ -0,0 +1,86 @@
+package org.example.chat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Codec negotiation happens once, before the first frame: the client sends the magic bytes,
+// a count and the ids of the codecs it offers in order of preference; the server answers with
+// the id of the first one it supports, or NONE.
+public class MessageCodecs {
+    public static final String DEFAULT = "binary,java";
+    public static final byte NONE = (byte) 0xFF;
+    public static final int HELLO_HEADER_LENGTH = 3;
+    // A client that has not sent its codec offer this long after connecting is dropped
+    public static final int HELLO_TIMEOUT_MILLIS = 10000;
+
+    private static final byte MAGIC_0 = 'C';
+    private static final byte MAGIC_1 = 'H';
+    private static final List<MessageCodec> ALL = List.of(new BinaryCodec(), new JavaSerializationCodec());
+    // Codec ids are small and dense, so they can index per-codec caches
+    public static final int ID_LIMIT = 2;
+
+    private MessageCodecs() {
+    }
+
+    public static List<MessageCodec> parse(String names) {
+        List<MessageCodec> codecs = new ArrayList<>();
+        for (String name : names.split(",")) {
+            codecs.add(forName(name.trim()));
+        }
+        return codecs;
+    }
+
+    // Client side preference, overridable with -Dchat.codecs=java to force the old format
+    public static List<MessageCodec> preferred() {
+        return parse(System.getProperty("chat.codecs", DEFAULT));
+    }
+
+    public static MessageCodec forName(String name) {
+        for (MessageCodec codec : ALL) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    public static MessageCodec forId(byte id) throws IOException {
+        for (MessageCodec codec : ALL) {
+            if (codec.getId() == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Server did not accept any offered codec");
+    }
+
+    public static byte[] hello(List<MessageCodec> offered) {
+        byte[] hello = new byte[HELLO_HEADER_LENGTH + offered.size()];
+        hello[0] = MAGIC_0;
+        hello[1] = MAGIC_1;
+        hello[2] = (byte) offered.size();
+        for (int i = 0; i < offered.size(); i++) {
+            hello[HELLO_HEADER_LENGTH + i] = offered.get(i).getId();
+        }
+        return hello;
+    }
+
+    // Returns the number of offered codec ids that follow the header
+    public static int readHelloHeader(byte magic0, byte magic1, byte count) throws IOException {
+        if (magic0 != MAGIC_0 || magic1 != MAGIC_1) {
+            throw new IOException("Unexpected protocol header");
+        }
+        return count & 0xFF;
+    }
+
+    public static MessageCodec choose(List<MessageCodec> supported, byte[] offeredIds, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            for (MessageCodec codec : supported) {
+                if (codec.getId() == offeredIds[offset + i]) {
+                    return codec;
+                }
+            }
+        }
+        return null;
+    }
+}
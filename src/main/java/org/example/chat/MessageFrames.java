@@ -0,0 +1,54 @@
+package org.example.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Every message travels as a 4-byte length followed by the codec-encoded message,
+// so blocking streams and non-blocking channels can both find frame boundaries.
+public class MessageFrames {
+    public static final int HEADER_LENGTH = 4;
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+    // A length with this bit set starts a data frame: the 4-byte length of the encoded message, the
+    // message, then raw bytes such as part of a file, all covered by the length. The raw bytes never
+    // go through a codec.
+    public static final int DATA_FRAME = 1 << 31;
+
+    private MessageFrames() {
+    }
+
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    // Length of the frame whose first 4 bytes are the given header, without them
+    public static int frameLength(int header) throws IOException {
+        int length = header & ~DATA_FRAME;
+        checkLength(length);
+        return length;
+    }
+
+    public static Message decode(MessageCodec codec, int header, byte[] bytes, int offset, int length) throws IOException {
+        if ((header & DATA_FRAME) == 0) {
+            return codec.decode(bytes, offset, length);
+        }
+        int messageLength = length >= HEADER_LENGTH ? ByteBuffer.wrap(bytes, offset, length).getInt() : -1;
+        if (messageLength < 0 || messageLength > length - HEADER_LENGTH) {
+            throw new IOException("Invalid data frame");
+        }
+        Message message = codec.decode(bytes, offset + HEADER_LENGTH, messageLength);
+        message.setPayload(Arrays.copyOfRange(bytes, offset + HEADER_LENGTH + messageLength, offset + length));
+        return message;
+    }
+
+    // Everything of a data frame before its raw bytes
+    public static ByteBuffer dataHeader(byte[] message, int payloadLength) {
+        return ByteBuffer.allocate(2 * HEADER_LENGTH + message.length)
+                .putInt(DATA_FRAME | (HEADER_LENGTH + message.length + payloadLength))
+                .putInt(message.length)
+                .put(message)
+                .flip();
+    }
+}
@@ -21,5 +21,29 @@ public enum MessageType {
     COMMAND,
     NICKNAME_CHANGED,
     USER_LIST,
-    HELP_MESSAGE
+    HELP_MESSAGE,
+    STATS,
+
+    // Room node to directory server
+    NODE_HEARTBEAT,
+
+    // Joins, leaves and renames of room members since a version
+    PRESENCE,
+
+    // Takes a dropped session back with its token, and the token a new session is given
+    RESUME,
+
+    // Liveness checks on an otherwise quiet connection; either side answers PING with PONG
+    PING,
+    PONG,
+
+    // File sharing: part of a file in a data frame, how much of it arrived, a file now available in the
+    // room, a member asking for one
+    FILE_CHUNK,
+    FILE_ACK,
+    FILE_SHARED,
+    FILE_REQUEST,
+
+    // Number of /search matches, followed by the matching messages themselves
+    SEARCH_RESULT
 }
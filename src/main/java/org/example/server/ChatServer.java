@@ -1,128 +1,680 @@
 package org.example.server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.security.SecureRandom;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.example.chat.*;
+import org.example.server.history.RecentFrames;
+import org.example.server.history.RoomLog;
+import org.example.server.history.SearchIndex;
+import org.example.server.net.SessionHandler;
 
-public class ChatServer implements Runnable {
+public class ChatServer {
+    private static final int CLOSING = -1;
+    // Matches shown for one /search
+    private static final int SEARCH_RESULTS = 20;
+    // Presence flushes and the end of parked sessions, for all rooms
+    private static final ScheduledExecutorService ROOM_TIMERS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "room-timers");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Writes uploaded file chunks, so the disk never holds up a room's lane; one thread keeps each
+    // upload's chunks in order
+    private static final ExecutorService FILE_IO = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "file-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final SecureRandom TOKENS = new SecureRandom();
+    // Messages of one member that the delay policy holds back before it rejects further ones
+    private static final int MAX_DELAYED_MESSAGES = 100;
+    // Stands in for the connection of a parked session; what it misses is replayed from the ring on resume
+    private static final MessageChannel DETACHED = new MessageChannel() {
+        @Override
+        public void send(Frame frame) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private final int roomId;
     private final String chatName;
-    private final ConcurrentMap<String, Connection> connections = new ConcurrentHashMap<>();
-    private final ServerSocket serverSocket;
+    private final ServerConfig config;
+    private final ConcurrentMap<String, MessageChannel> connections = new ConcurrentHashMap<>();
+    // Members by id; live messages carry only the id once the name has been announced
+    private final RoomPresence presence = new RoomPresence();
+    private final AtomicBoolean presenceFlushScheduled = new AtomicBoolean();
+    private final AtomicInteger nextUserId = new AtomicInteger(1);
+    // Joined sessions by resume token, parked ones included
+    private final ConcurrentMap<String, ChatHandler> sessionsByToken = new ConcurrentHashMap<>();
+    // Sequence of the last live broadcast; members resume from the last one they saw
+    private final AtomicLong lastSequence = new AtomicLong();
+    // Null when history is disabled
+    private final RoomLog log;
+    // Recent broadcasts kept in memory for joining members, null when disabled
+    private final RecentFrames recentFrames;
+    private final RoomStats stats = new RoomStats(connections.values());
+    // Null when the room runs outside a MainServer
+    private final ServerStats serverStats;
+    // Sessions in the room, or CLOSING; only an empty room can be closed
+    private final AtomicInteger sessions = new AtomicInteger();
+    private volatile long idleSince = System.nanoTime();
+    // Shared by every member, null when the room is not rate limited
+    private final RateLimiter roomLimiter;
+    // Null when file sharing is disabled
+    private final RoomFiles files;
+    // Null when search is disabled
+    private final SearchIndex searchIndex;
+    // Runs the room's work one task at a time; null runs it on the thread it came from
+    private final RoomExecutor.Lane lane;
 
-    public ChatServer(int port, String chatName) throws IOException {
+    public ChatServer(int roomId, String chatName, ServerConfig config, RoomLog log, ServerStats serverStats, RoomExecutor roomExecutor) {
+        this.roomId = roomId;
         this.chatName = chatName;
-        // Open the ServerSocket here to ensure it's ready before the client connects
-        serverSocket = new ServerSocket(port);
-        System.out.println("ChatServer '" + chatName + "' started on port " + port);
+        this.config = config;
+        this.log = log;
+        this.recentFrames = config.createRecentFrames();
+        this.serverStats = serverStats;
+        this.roomLimiter = config.createRoomRateLimiter();
+        this.files = config.createRoomFiles(roomId);
+        this.searchIndex = config.createSearchIndex();
+        this.lane = roomExecutor != null ? roomExecutor.newLane() : null;
+        if (searchIndex != null && log != null) {
+            // History from before a restart is searchable too
+            searchIndex.load(log);
+        }
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public String getChatName() {
+        return chatName;
+    }
+
+    public RoomStats getStats() {
+        return stats;
+    }
+
+    public RoomState getState() {
+        int count = sessions.get();
+        return count == CLOSING ? RoomState.CLOSING : count == 0 ? RoomState.IDLE : RoomState.ACTIVE;
+    }
+
+    // System.nanoTime() when the room last became empty
+    public long getIdleSince() {
+        return idleSince;
     }
 
-    public void run() {
-        try {
-            while (true) {
-                Socket socket = serverSocket.accept();
-                new ChatHandler(socket).start();
+    // Moves an empty room to CLOSING; false if someone is in it or it is already closing
+    public boolean close() {
+        return sessions.compareAndSet(0, CLOSING);
+    }
+
+    // Once the room is closed
+    public void deleteFiles() {
+        if (files != null) {
+            files.deleteAll();
+        }
+    }
+
+    private boolean enter() {
+        while (true) {
+            int count = sessions.get();
+            if (count == CLOSING) {
+                return false;
+            }
+            if (sessions.compareAndSet(count, count + 1)) {
+                return true;
             }
-        } catch (IOException e) {
-            System.out.println("Error in ChatServer '" + chatName + "': " + e.getMessage());
-        } finally {
+        }
+    }
+
+    private void leave() {
+        // Set first, so whoever empties the room leaves a fresh timestamp behind
+        idleSince = System.nanoTime();
+        sessions.decrementAndGet();
+    }
+
+    public SessionHandler newHandler(MessageChannel connection) {
+        return new ChatHandler(connection, null);
+    }
+
+    // For a connection that asked to take a dropped session back with a RESUME message
+    public SessionHandler resumeHandler(MessageChannel connection, Message request) {
+        return new ChatHandler(connection, request);
+    }
+
+    // On the lane, members' messages are handled one after another, so broadcasts leave in sequence order
+    private void runInRoom(Runnable task) {
+        if (lane != null) {
+            lane.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private interface RoomTask {
+        void run() throws IOException;
+    }
+
+    // Joins, leaves and renames go out together once per presence interval
+    private void presenceChanged() {
+        long interval = config.getPresenceIntervalMillis();
+        if (interval <= 0) {
+            flushPresence();
+        } else if (presenceFlushScheduled.compareAndSet(false, true)) {
+            ROOM_TIMERS.schedule(() -> runInRoom(this::flushPresence), interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPresence() {
+        // Cleared first, so a change made while this runs schedules another flush
+        presenceFlushScheduled.set(false);
+        String delta = presence.takePending();
+        if (delta != null) {
+            fanOut(new Frame(new Message(MessageType.PRESENCE, delta)));
+        }
+    }
+
+    private void fanOut(Frame frame) {
+        long start = System.nanoTime();
+        for (MessageChannel conn : connections.values()) {
             try {
-                serverSocket.close();
+                conn.send(frame);
             } catch (IOException e) {
-                System.out.println("Error closing ChatServer socket: " + e.getMessage());
+                System.out.println("Error sending message to client: " + e.getMessage());
             }
         }
+        stats.broadcast(System.nanoTime() - start);
+    }
+
+    private enum SessionState {
+        // The member's connection is up
+        ATTACHED,
+        // The connection dropped; the member stays in the room for the grace period
+        PARKED,
+        // The member left, or a resumed connection took the session over
+        ENDED
     }
 
-    private class ChatHandler extends Thread {
-        private final Socket socket;
-        private Connection connection;
+    private class ChatHandler implements SessionHandler {
+        private final MessageChannel connection;
+        private final RateLimiter userLimiter = config.createUserRateLimiter();
+        // Set on the connection's thread once the member is disconnected for its rate; what it still sends is ignored
+        private boolean disconnecting;
+        // Messages over the rate held back by the delay policy, in order; guarded by itself
+        private final ArrayDeque<Message> delayed = new ArrayDeque<>();
+        // Null unless the connection came to resume a session
+        private final Message resumeRequest;
         private String userName;
+        private int userId;
+        private String token;
+        private boolean joined;
+        private boolean entered;
+        private long nameRequestedAt;
+        // The file this member is sending, null between uploads; only used on FILE_IO
+        private RoomFiles.Upload upload;
+        // Guarded by this, since a resumed connection takes the session over from another thread
+        private SessionState state = SessionState.ATTACHED;
 
-        public ChatHandler(Socket socket) {
-            this.socket = socket;
+        public ChatHandler(MessageChannel connection, Message resumeRequest) {
+            this.connection = connection;
+            this.resumeRequest = resumeRequest;
         }
 
-        public void run() {
-            try {
-                connection = new Connection(socket);
-                performHandshake();
-                sendMessageToAll(new Message(MessageType.USER_ADDED, userName + " has joined the chat.", userName));
-                processMessages();
-            } catch (IOException e) {
-                System.out.println("Error handling client: " + e.getMessage());
-            } finally {
-                if (userName != null) {
-                    connections.remove(userName);
-                    sendMessageToAll(new Message(MessageType.USER_REMOVED, userName + " has left the chat.", userName));
+        @Override
+        public void onOpen() throws IOException {
+            handleInRoom(this::open);
+        }
+
+        @Override
+        public void onMessage(Message message) throws IOException {
+            // Checked on the connection's thread, so messages over the limit never take a turn of the room
+            if (disconnecting || countsAgainstRate(message) && !admit(message)) {
+                return;
+            }
+            handleInRoom(() -> handle(message));
+        }
+
+        @Override
+        public void onClose() {
+            synchronized (delayed) {
+                delayed.clear();
+            }
+            runInRoom(this::disconnected);
+        }
+
+        // A send that fails on the lane ends the connection, as it would have on the connection's thread
+        private void handleInRoom(RoomTask task) throws IOException {
+            if (lane == null) {
+                task.run();
+                return;
+            }
+            lane.execute(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    System.out.println("Error handling client: " + e.getMessage());
+                    connection.abort();
+                }
+            });
+        }
+
+        private void open() throws IOException {
+            if (resumeRequest != null) {
+                if (resume(resumeRequest)) {
+                    return;
                 }
+                connection.send(new Message(MessageType.ERROR, "Your session could not be resumed. Please join again."));
+            }
+            if (!enter()) {
+                connection.send(new Message(MessageType.ERROR, "This chat has been closed."));
                 connection.close();
+                return;
             }
+            entered = true;
+            nameRequestedAt = System.nanoTime();
+            connection.send(new Message(MessageType.NAME_REQUEST, "Enter your name:"));
         }
 
-        private void performHandshake() throws IOException {
-            while (true) {
-                connection.send(new Message(MessageType.NAME_REQUEST, "Enter your name:"));
-                Message response = connection.receive();
-                if (response.getType() == MessageType.USER_NAME) {
-                    userName = response.getData();
-                    if (userName != null && !userName.isEmpty() && !connections.containsKey(userName)) {
-                        // Add connection to map
-                        connections.put(userName, connection);
-                        connection.send(new Message(MessageType.NAME_ACCEPTED, "Welcome to " + chatName));
-                        break;
+        private void handle(Message message) throws IOException {
+            if (joined) {
+                processMessage(message);
+            } else {
+                performHandshake(message);
+            }
+        }
+
+        private void disconnected() {
+            FILE_IO.execute(this::abandonUpload);
+            if (joined) {
+                joined = false;
+                // Nothing to do if a resumed connection has already taken the session over
+                if (park()) {
+                    long grace = config.getResumeGraceMillis();
+                    if (grace > 0) {
+                        ROOM_TIMERS.schedule(() -> runInRoom(this::expire), grace, TimeUnit.MILLISECONDS);
                     } else {
-                        connection.send(new Message(MessageType.ERROR, "Invalid or duplicate name."));
+                        expire();
                     }
-                } else {
-                    connection.send(new Message(MessageType.ERROR, "Invalid response."));
                 }
+                return;
+            }
+            if (entered) {
+                entered = false;
+                leave();
             }
         }
 
-        private void processMessages() throws IOException {
-            while (true) {
-                Message message = connection.receive();
-                if (message == null) {
-                    break;
+        private synchronized boolean park() {
+            if (state != SessionState.ATTACHED) {
+                return false;
+            }
+            state = SessionState.PARKED;
+            connections.replace(userName, connection, DETACHED);
+            return true;
+        }
+
+        // Ends a parked session nobody resumed in time, the only point where a member leaves
+        private void expire() {
+            synchronized (this) {
+                if (state != SessionState.PARKED) {
+                    return;
                 }
-                if (message.getType() == MessageType.TEXT) {
-                    // Broadcast message to all
-                    Message broadcastMessage = new Message(MessageType.TEXT, message.getData(), userName, LocalDateTime.now(), chatName);
-                    sendMessageToAll(broadcastMessage);
-                } else if (message.getType() == MessageType.COMMAND) {
-                    handleCommand(message);
-                } else {
-                    connection.send(new Message(MessageType.ERROR, "Invalid message type."));
+                state = SessionState.ENDED;
+            }
+            if (token != null) {
+                sessionsByToken.remove(token, this);
+            }
+            connections.remove(userName, DETACHED);
+            presence.remove(userId);
+            presenceChanged();
+            entered = false;
+            leave();
+        }
+
+        // Gives the session up to a resumed connection; a connection still up is closed
+        private synchronized boolean takeOver() {
+            if (state == SessionState.ENDED) {
+                return false;
+            }
+            boolean attached = state == SessionState.ATTACHED;
+            state = SessionState.ENDED;
+            if (attached) {
+                connection.close();
+            }
+            return true;
+        }
+
+        // Continues the session of the token on this connection without a leave or join announcement.
+        // Broadcasts reach this connection from the moment it replaces the old one, and the ring supplies
+        // those since the last sequence the client saw.
+        private boolean resume(Message request) throws IOException {
+            ChatHandler previous = request.getData() != null ? sessionsByToken.get(request.getData()) : null;
+            if (previous == null || !previous.takeOver()) {
+                return false;
+            }
+            userName = previous.userName;
+            userId = previous.userId;
+            token = previous.token;
+            entered = true;
+            joined = true;
+            sessionsByToken.put(token, this);
+            connections.put(userName, connection);
+            long newest = recentFrames != null ? recentFrames.getNewest() : lastSequence.get();
+            connection.send(Message.resumeToken(token, userName, userId, chatName, roomId, newest));
+            connection.send(presence.snapshot());
+            if (request.getSequence() < newest && (recentFrames == null || !recentFrames.replayRange(request.getSequence(), newest, connection))) {
+                connection.send(new Message(MessageType.ERROR, "Some messages sent while you were away are no longer available."));
+            }
+            return true;
+        }
+
+        private void performHandshake(Message response) throws IOException {
+            if (response.getType() == MessageType.USER_NAME) {
+                String name = response.getData();
+                if (isValidName(name) && connections.putIfAbsent(name, connection) == null) {
+                    userName = name;
+                    userId = nextUserId.getAndIncrement();
+                    presence.add(userId, userName);
+                    joined = true;
+                    if (serverStats != null) {
+                        serverStats.handshakeCompleted(System.nanoTime() - nameRequestedAt);
+                    }
+                    // Tells the client its own id and the room's id
+                    connection.send(new Message(MessageType.NAME_ACCEPTED, "Welcome to " + chatName, userName, userId, null, chatName, roomId));
+                    if (config.getResumeGraceMillis() > 0) {
+                        // Lets the client take the session back after a dropped connection
+                        token = Long.toHexString(TOKENS.nextLong());
+                        sessionsByToken.put(token, this);
+                        connection.send(Message.resumeToken(token, userName, userId, chatName, roomId, lastSequence.get()));
+                    }
+                    // Everyone here with their ids, in one message shared by all who join at this version
+                    connection.send(presence.snapshot());
+                    if (config.getHistoryOnJoin() > 0) {
+                        // The ring answers from memory; the log is only read when there is no ring
+                        if (recentFrames != null) {
+                            recentFrames.replayLast(historyLimit(config.getHistoryOnJoin()), connection);
+                        } else if (log != null) {
+                            log.replayLast(historyLimit(config.getHistoryOnJoin()), connection);
+                        }
+                    }
+                    presenceChanged();
+                    return;
+                }
+                connection.send(new Message(MessageType.ERROR, "Invalid or duplicate name."));
+            } else {
+                connection.send(new Message(MessageType.ERROR, "Invalid response."));
+            }
+            connection.send(new Message(MessageType.NAME_REQUEST, "Enter your name:"));
+        }
+
+        private void processMessage(Message message) throws IOException {
+            if (message.getType() == MessageType.FILE_CHUNK) {
+                // Paced by the window rather than counted against the message rate
+                FILE_IO.execute(() -> {
+                    try {
+                        receiveChunk(message);
+                    } catch (IOException e) {
+                        System.out.println("Error handling client: " + e.getMessage());
+                        connection.abort();
+                    }
+                });
+                return;
+            }
+            if (message.getType() == MessageType.FILE_ACK) {
+                connection.acknowledgeFile(message.getData(), message.getSequence());
+                return;
+            }
+            if (message.getType() == MessageType.TEXT) {
+                // Members have to know the sender's id before its first message reaches them
+                if (presence.hasPending()) {
+                    flushPresence();
+                }
+                // Members know the ids, so live copies leave out the names; kept copies need them after members leave
+                LocalDateTime now = LocalDateTime.now();
+                long sequence = lastSequence.incrementAndGet();
+                Message live = Message.broadcast(message.getData(), userId, now, roomId, sequence);
+                Message kept = new Message(MessageType.TEXT, message.getData(), userName, userId, now, chatName, roomId);
+                sendMessageToAll(sequence, live, kept);
+            } else if (message.getType() == MessageType.COMMAND) {
+                handleCommand(message);
+            } else if (message.getType() == MessageType.FILE_REQUEST) {
+                sendFile(message.getData());
+            } else {
+                connection.send(new Message(MessageType.ERROR, "Invalid message type."));
+            }
+        }
+
+        // Runs on FILE_IO. A chunk at offset 0 starts an upload, replacing one left unfinished. Every
+        // chunk written is acknowledged so the uploader may send more; chunks of a refused upload are
+        // answered with CANCELLED. A finished file is announced on the room's lane.
+        private void receiveChunk(Message chunk) throws IOException {
+            if (chunk.getSequence() == 0) {
+                abandonUpload();
+                if (files == null) {
+                    refuseUpload(chunk, "File sharing is not enabled on this server.");
+                    return;
+                }
+                try {
+                    upload = files.startUpload(chunk.getData(), userName);
+                } catch (IOException e) {
+                    refuseUpload(chunk, "Cannot share the file: " + e.getMessage());
+                    return;
+                }
+            }
+            if (upload == null) {
+                refuseUpload(chunk, null);
+                return;
+            }
+            RoomFiles.SharedFile shared;
+            try {
+                shared = upload.write(chunk.getSequence(), chunk.getPayload());
+            } catch (IOException e) {
+                upload.abandon();
+                upload = null;
+                refuseUpload(chunk, "Cannot share the file: " + e.getMessage());
+                return;
+            }
+            long received = chunk.getSequence() + chunk.getPayload().length;
+            connection.send(Message.fileAck(chunk.getData(), received));
+            if (shared != null) {
+                upload = null;
+                runInRoom(() -> {
+                    if (presence.hasPending()) {
+                        flushPresence();
+                    }
+                    fanOut(new Frame(new Message(MessageType.FILE_SHARED, shared.describe(), null, userId, LocalDateTime.now(), null, roomId)));
+                });
+            }
+        }
+
+        private void abandonUpload() {
+            if (upload != null) {
+                upload.abandon();
+                upload = null;
+            }
+        }
+
+        private void refuseUpload(Message chunk, String error) throws IOException {
+            connection.send(Message.fileAck(chunk.getData(), FileTransfer.CANCELLED));
+            if (error != null) {
+                connection.send(new Message(MessageType.ERROR, error));
+            }
+        }
+
+        // Queued behind the member's messages; the transport sends it a chunk at a time while nothing else is waiting
+        private void sendFile(String id) throws IOException {
+            RoomFiles.SharedFile file = null;
+            try {
+                file = files != null && id != null ? files.get(Integer.parseInt(id.trim())) : null;
+            } catch (NumberFormatException e) {
+                // No such file
+            }
+            if (file == null) {
+                connection.send(new Message(MessageType.ERROR, "No such file."));
+                return;
+            }
+            try {
+                connection.sendFile(file.open());
+            } catch (IOException e) {
+                connection.send(new Message(MessageType.ERROR, "Cannot send the file: " + e.getMessage()));
+            }
+        }
+
+        // File chunks are paced by the window instead, and names are only sent before joining. The client
+        // sends /list since on its own when it misses a presence delta; turning that away would leave its
+        // member list stale, and the answer comes from memory.
+        private boolean countsAgainstRate(Message message) {
+            MessageType type = message.getType();
+            if (type == MessageType.COMMAND && message.getData() != null && message.getData().startsWith("/list since ")) {
+                return false;
+            }
+            return type != MessageType.FILE_CHUNK && type != MessageType.FILE_ACK && type != MessageType.USER_NAME;
+        }
+
+        // The message has to fit both the user's and the room's rate; the policy decides what happens when it does not
+        private boolean admit(Message message) throws IOException {
+            long wait;
+            synchronized (delayed) {
+                // Behind messages already held back, so they keep their order
+                wait = delayed.isEmpty() ? acquire() : 1;
+                if (wait == 0) {
+                    return true;
+                }
+                if (config.getRateLimitPolicy() == RateLimitPolicy.DELAY && delayed.size() < MAX_DELAYED_MESSAGES) {
+                    countRateLimited();
+                    delayed.add(message);
+                    if (delayed.size() == 1) {
+                        ROOM_TIMERS.schedule(this::releaseDelayed, wait, TimeUnit.NANOSECONDS);
+                    }
+                    return false;
+                }
+            }
+            countRateLimited();
+            // Answered in the room, behind the sender's messages that got in
+            if (config.getRateLimitPolicy() == RateLimitPolicy.DISCONNECT) {
+                disconnecting = true;
+                handleInRoom(() -> {
+                    connection.send(new Message(MessageType.ERROR, "Disconnected for sending messages too fast."));
+                    connection.close();
+                });
+            } else {
+                handleInRoom(() -> connection.send(new Message(MessageType.ERROR, "You are sending messages too fast. Please slow down.")));
+            }
+            return false;
+        }
+
+        // Takes a token from both limiters or from neither, and returns the nanoseconds to wait if it took none
+        private long acquire() {
+            long wait = userLimiter != null ? userLimiter.tryAcquire() : 0;
+            if (wait == 0 && roomLimiter != null) {
+                wait = roomLimiter.tryAcquire();
+                if (wait > 0 && userLimiter != null) {
+                    userLimiter.refund();
+                }
+            }
+            return wait;
+        }
+
+        private void countRateLimited() {
+            stats.rateLimited();
+            if (serverStats != null) {
+                serverStats.rateLimited();
+            }
+        }
+
+        // Runs on the room timer: hands the held back messages to the room as the rate allows, and comes
+        // back for the rest. Nothing waits on the connection's thread, which in nio mode serves many others.
+        private void releaseDelayed() {
+            synchronized (delayed) {
+                while (!delayed.isEmpty()) {
+                    long wait = acquire();
+                    if (wait > 0) {
+                        ROOM_TIMERS.schedule(this::releaseDelayed, wait, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                    Message message = delayed.poll();
+                    try {
+                        handleInRoom(() -> handle(message));
+                    } catch (IOException e) {
+                        System.out.println("Error handling client: " + e.getMessage());
+                        connection.abort();
+                        delayed.clear();
+                    }
                 }
             }
         }
 
         private void handleCommand(Message message) throws IOException {
-            String command = message.getData();
+            // A command without text is answered as unknown
+            String command = message.getData() != null ? message.getData() : "";
             if (command.startsWith("/rename ")) {
                 String newName = command.substring(8).trim();
-                if (!newName.isEmpty() && !connections.containsKey(newName)) {
+                if (isValidName(newName) && connections.putIfAbsent(newName, connection) == null) {
                     connections.remove(userName);
-                    connections.put(newName, connection);
-                    String oldName = userName;
                     userName = newName;
-                    sendMessageToAll(new Message(MessageType.NICKNAME_CHANGED, oldName + " changed nickname to " + userName));
+                    // The id now stands for the new name
+                    presence.rename(userId, userName);
+                    presenceChanged();
                 } else {
                     connection.send(new Message(MessageType.ERROR, "Invalid or duplicate nickname."));
                 }
             } else if (command.equals("/list")) {
-                String userList = String.join(", ", connections.keySet());
-                connection.send(new Message(MessageType.USER_LIST, userList));
-            }  else if (command.equals("/help")) {
+                connection.send(presence.userList());
+            } else if (command.startsWith("/list since ")) {
+                try {
+                    connection.send(new Message(MessageType.USER_LIST, presence.since(Long.parseLong(command.substring(12).trim()))));
+                } catch (NumberFormatException e) {
+                    connection.send(new Message(MessageType.ERROR, "Usage: /list since [version]"));
+                }
+            } else if (command.equals("/history") || command.startsWith("/history ")) {
+                sendHistory(command.substring(8).trim());
+            } else if (command.startsWith("/search ")) {
+                sendSearchResults(command.substring(8).trim());
+            } else if (command.equals("/stats")) {
+                sendStats();
+            } else if (command.equals("/files")) {
+                if (files == null) {
+                    connection.send(new Message(MessageType.ERROR, "File sharing is not enabled on this server."));
+                    return;
+                }
+                // With the uploaders' names, who may have left since
+                for (RoomFiles.SharedFile file : files.list()) {
+                    connection.send(new Message(MessageType.FILE_SHARED, file.describe(), file.getUploader()));
+                }
+            } else if (command.equals("/help")) {
                 String helpMessage = """
                         Available commands:
                         /help           - Show this help message
                         /rename [name]  - Change your nickname
                         /list           - List users in the current chat room
+                        /list since [v] - List joins, leaves and renames since a version
+                        /history [n]    - Show the last n messages
+                        /history since [time] - Show messages since a time, e.g. 2024-10-01T18:30
+                        /search [words] - Find messages with all the words; add from:[name], since:[time], until:[time]
+                        /stats          - Show room and server statistics
+                        /send [path]    - Share a file with the room
+                        /files          - List the files shared in the room
+                        /get [id]       - Download a shared file
                         /exit           - Exit the chat""";
                 connection.send(new Message(MessageType.HELP_MESSAGE, helpMessage));
             } else {
@@ -130,14 +682,101 @@ public class ChatServer implements Runnable {
             }
         }
 
-        private void sendMessageToAll(Message message) {
-            for (Connection conn : connections.values()) {
+        private void sendStats() throws IOException {
+            StringBuilder text = new StringBuilder("Room ").append(chatName).append(": ").append(stats.summary())
+                    .append("\nYou: bytes in=").append(connection.getBytesIn()).append(", out=").append(connection.getBytesOut());
+            if (serverStats != null) {
+                text.append("\nServer: ").append(serverStats.summary());
+            }
+            connection.send(new Message(MessageType.STATS, text.toString()));
+        }
+
+        private void sendHistory(String arguments) throws IOException {
+            if (log == null) {
+                connection.send(new Message(MessageType.ERROR, "History is not enabled on this server."));
+                return;
+            }
+            try {
+                int limit = historyLimit(Integer.MAX_VALUE);
+                if (arguments.startsWith("since ")) {
+                    LocalDateTime since = LocalDateTime.parse(arguments.substring(6).trim());
+                    log.replaySince(since.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), limit, connection);
+                } else {
+                    int count = arguments.isEmpty() ? config.getHistoryOnJoin() : Integer.parseInt(arguments);
+                    if (count > limit) {
+                        connection.send(new Message(MessageType.HELP_MESSAGE, "Showing only the last " + limit + " messages."));
+                    }
+                    log.replayLast(Math.min(count, limit), connection);
+                }
+            } catch (NumberFormatException | DateTimeParseException e) {
+                connection.send(new Message(MessageType.ERROR, "Usage: /history [n] or /history since [yyyy-MM-ddTHH:mm]"));
+            }
+        }
+
+        // History is written to the client's queue all at once, so it has to leave room in it for the
+        // live messages, or the client would be disconnected or lose messages for asking
+        private int historyLimit(int count) {
+            return Math.min(count, Math.max(1, config.getOutboundQueueCapacity() / 2));
+        }
+
+        // The newest matches, oldest first, after a line with the number of matches
+        private void sendSearchResults(String arguments) throws IOException {
+            if (searchIndex == null) {
+                connection.send(new Message(MessageType.ERROR, "Search is not enabled on this server."));
+                return;
+            }
+            SearchIndex.Query query;
+            try {
+                query = SearchIndex.Query.parse(arguments);
+            } catch (DateTimeParseException e) {
+                query = null;
+            }
+            if (query == null || query.isEmpty()) {
+                connection.send(new Message(MessageType.ERROR, "Usage: /search [words] [from:name] [since:yyyy-MM-ddTHH:mm] [until:yyyy-MM-ddTHH:mm]"));
+                return;
+            }
+            long start = System.nanoTime();
+            List<Frame> matches = new ArrayList<>();
+            int total = searchIndex.search(query, SEARCH_RESULTS, matches);
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            StringBuilder text = new StringBuilder().append(total).append(total == 1 ? " match" : " matches");
+            if (total > matches.size()) {
+                text.append(", showing the newest ").append(matches.size());
+            }
+            text.append(" (").append(micros).append(" us over ").append(searchIndex.size()).append(" messages)");
+            connection.send(new Message(MessageType.SEARCH_RESULT, text.toString()));
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                connection.send(matches.get(i));
+            }
+        }
+
+        // Names go into presence lines, which end at a line break
+        private boolean isValidName(String name) {
+            return name != null && !name.isEmpty() && name.indexOf('\n') < 0;
+        }
+
+        // The live message goes to the members, the kept one to the recent ring and the log. It enters
+        // the ring before the fan-out, so a member resuming meanwhile gets it one way or the other.
+        private void sendMessageToAll(long sequence, Message live, Message kept) {
+            // Encoded once, the same bytes go to every member
+            Frame frame = new Frame(live);
+            Frame keptFrame = new Frame(kept);
+            if (recentFrames != null) {
+                recentFrames.append(sequence, keptFrame);
+            }
+            fanOut(frame);
+            // Appended after the fan-out so members never wait for the log
+            if (log != null) {
                 try {
-                    conn.send(message);
+                    log.append(keptFrame);
                 } catch (IOException e) {
-                    System.out.println("Error sending message to client: " + e.getMessage());
+                    System.out.println("Error appending to history of '" + chatName + "': " + e.getMessage());
                 }
             }
+            // Only queued here; the index catches up in the background
+            if (searchIndex != null) {
+                searchIndex.add(keptFrame);
+            }
         }
     }
 }
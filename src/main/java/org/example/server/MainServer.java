@@ -1,123 +1,394 @@
 package org.example.server;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.BindException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import org.example.chat.*;
+import org.example.server.history.HistoryStore;
+import org.example.server.net.IdleMonitor;
+import org.example.server.net.OutboundStats;
+import org.example.server.net.SessionHandler;
+import org.example.server.net.TimingWheel;
+import org.example.server.net.TrafficRecorder;
+import org.example.server.net.Transport;
 
-public class MainServer {
-    private static final int DEFAULT_PORT = 12345;
-    private static final int CHAT_START_PORT = 20000;
-    private static int nextChatPort = CHAT_START_PORT;
-    private static final Map<Integer, String> chatRooms = new HashMap<>();
+public class MainServer implements Closeable {
+    private static final int FIRST_SHARED_ROOM_ID = 1;
+    private final ServerConfig config;
+    private final Transport transport;
+    private final AtomicInteger nextRoomId = new AtomicInteger(FIRST_SHARED_ROOM_ID);
+    private final RoomRegistry chatRooms;
+    private final OutboundStats outboundStats = new OutboundStats();
+    private final ResourceReport resourceReport = new ResourceReport(outboundStats);
+    // One wheel for the idle checks of every connection, ticking every 100ms
+    private final TimingWheel timingWheel = new TimingWheel(100, 512);
+    private final IdleMonitor idleMonitor;
+    // Null unless --record is given
+    private final TrafficRecorder trafficRecorder;
+    // Runs the work of every room; null when rooms use the threads of their connections
+    private final RoomExecutor roomExecutor;
+    private final HistoryStore historyStore;
+    private final ServerStats serverStats;
+    // Room nodes known to a directory server
+    private final NodeDirectory nodeDirectory;
+    // Set on a room node once it reports to its directory
+    private volatile NodeHeartbeat nodeHeartbeat;
+    // The main port's listener, null until started
+    private volatile Closeable listener;
+
+    public MainServer(ServerConfig config) throws IOException {
+        this.config = config;
+        this.chatRooms = new RoomRegistry(config.getRoomPort(), this::releaseRoom);
+        this.transport = config.createTransport(outboundStats);
+        this.historyStore = config.createHistoryStore();
+        this.idleMonitor = new IdleMonitor(timingWheel, config.getPingIntervalMillis(), config.getIdleTimeoutMillis());
+        this.trafficRecorder = config.createTrafficRecorder();
+        this.roomExecutor = config.createRoomExecutor();
+        this.serverStats = new ServerStats(config.getPort(), resourceReport, outboundStats, idleMonitor, roomExecutor, chatRooms);
+        // A node that missed three heartbeats is forgotten with its rooms
+        this.nodeDirectory = new NodeDirectory(TimeUnit.MILLISECONDS.toNanos(3 * config.getHeartbeatMillis()));
+    }
 
     public static void main(String[] args) {
-        int port = DEFAULT_PORT;
-        System.out.println("MainServer started on port " + port);
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                new MainServerHandler(clientSocket).start();
-            }
+        ServerConfig config = ServerConfig.fromArgs(args);
+        try {
+            new MainServer(config).start();
         } catch (IOException e) {
             System.out.println("Error in MainServer: " + e.getMessage());
         }
     }
 
-    private static class MainServerHandler extends Thread {
-        private final Socket socket;
-        private Connection connection;
-
-        public MainServerHandler(Socket socket) {
-            this.socket = socket;
+    public void start() throws IOException {
+        timingWheel.start("timing-wheel");
+        listener = transport.listen(config.getPort(), track(config.getPort(), MainServerHandler::new));
+        serverStats.register();
+        System.out.println("MainServer started on port " + config.getPort() + " in " + config.getMode() + " mode");
+        if (config.getReportIntervalSeconds() > 0) {
+            resourceReport.start(config.getReportIntervalSeconds());
+        }
+        if (config.getRoomIdleTimeoutSeconds() > 0) {
+            chatRooms.startReaper(config.getRoomIdleTimeoutSeconds());
         }
+        if (hosting() == RoomHosting.NODE) {
+            if (config.getDirectory() == null) {
+                throw new IllegalArgumentException("A room node needs --directory=host:port");
+            }
+            nodeHeartbeat = new NodeHeartbeat(config.getDirectory(), config.getAdvertisedHost(), config.getPort(), resourceReport::getSessionCount);
+            nodeHeartbeat.start(config.getHeartbeatMillis());
+        }
+        if (hosting() == RoomHosting.DIRECTORY) {
+            nodeDirectory.startReaper(config.getHeartbeatMillis());
+        }
+    }
 
-        public void run() {
+    // Closes every port and connection and releases the rooms, keeping their history for the next
+    // start. Room work already queued still runs.
+    @Override
+    public void close() {
+        if (listener != null) {
             try {
-                connection = new Connection(socket);
-                handleClient();
+                listener.close();
             } catch (IOException e) {
-                System.out.println("Error handling client: " + e.getMessage());
-            } finally {
-                connection.close();
+                System.out.println("Error closing listener of MainServer: " + e.getMessage());
             }
         }
+        chatRooms.closeAll(this::stopRoom);
+        resourceReport.stop();
+        transport.shutdown();
+        timingWheel.stop();
+        nodeDirectory.stopReaper();
+        if (nodeHeartbeat != null) {
+            nodeHeartbeat.stop();
+        }
+        if (roomExecutor != null) {
+            roomExecutor.shutdown();
+        }
+        serverStats.unregister();
+        System.out.println("MainServer on port " + config.getPort() + " stopped");
+    }
+
+    // Every listening port counts and watches its connections the same way. Pings and pongs are
+    // answered before the recorder, so a capture holds only what the client had to say.
+    private Function<MessageChannel, SessionHandler> track(int port, Function<MessageChannel, SessionHandler> handlers) {
+        Function<MessageChannel, SessionHandler> tracked = resourceReport.track(handlers);
+        if (trafficRecorder != null) {
+            tracked = trafficRecorder.track(port, tracked);
+        }
+        return idleMonitor.track(tracked);
+    }
+
+    private ChatServer newChatServer(int roomId, String chatName) throws IOException {
+        return new ChatServer(roomId, chatName, config, historyStore != null ? historyStore.open(chatName) : null, serverStats, roomExecutor);
+    }
+
+    private void addRoom(int key, ChatServer chatServer, Closeable listener) {
+        chatRooms.add(key, chatServer, listener);
+        serverStats.register(chatServer);
+    }
+
+    // Everything a closed room holds besides its listener. Its name goes to the next room that gets
+    // the same port or id, so its history is deleted rather than handed down to that room.
+    private void releaseRoom(ChatServer chatServer) {
+        serverStats.unregister(chatServer);
+        chatServer.deleteFiles();
+        if (historyStore != null) {
+            historyStore.delete(chatServer.getChatName());
+        }
+        // The directory stops listing it
+        if (nodeHeartbeat != null) {
+            nodeHeartbeat.roomClosed(chatServer.getRoomId());
+        }
+    }
+
+    private void stopRoom(ChatServer chatServer) {
+        serverStats.unregister(chatServer);
+        chatServer.deleteFiles();
+        if (historyStore != null) {
+            historyStore.close(chatServer.getChatName());
+        }
+    }
+
+    private RoomHosting hosting() {
+        return config.getRoomHosting();
+    }
+
+    private boolean sharedRooms() {
+        return hosting() == RoomHosting.SHARED;
+    }
+
+    private class MainServerHandler implements SessionHandler {
+        private final MessageChannel connection;
+        private boolean awaitingPort;
+        // Set once a room has taken over this connection
+        private SessionHandler roomHandler;
+        // Set when the other end is a room node sending heartbeats
+        private NodeDirectory.Node node;
 
-        private void handleClient() throws IOException {
+        public MainServerHandler(MessageChannel connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onOpen() throws IOException {
+            if (hosting() == RoomHosting.NODE) {
+                // The client names the room the directory sent it to
+                return;
+            }
             // Ask client to choose action
             connection.send(new Message(MessageType.REQUEST_ACTION, "Do you want to (1) Create a new chat or (2) Join an existing chat? Enter 1 or 2:"));
+        }
 
-            Message response = connection.receive();
-            if (response.getType() == MessageType.CREATE_CHAT && "1".equals(response.getData())) {
+        @Override
+        public void onMessage(Message response) throws IOException {
+            if (roomHandler != null) {
+                roomHandler.onMessage(response);
+                return;
+            }
+            if (response.getType() == MessageType.NODE_HEARTBEAT && hosting() == RoomHosting.DIRECTORY) {
+                reportLoad(response);
+                return;
+            }
+            if (response.getType() == MessageType.RESUME) {
+                resumeSession(response);
+            } else if (hosting() == RoomHosting.NODE) {
+                enterPlacedRoom(response);
+            } else if (awaitingPort) {
+                selectChat(response);
+            } else if (response.getType() == MessageType.CREATE_CHAT && "1".equals(response.getData())) {
                 // Client wants to create a new chat
                 createNewChat();
-
             } else if (response.getType() == MessageType.JOIN_CHAT && "2".equals(response.getData())) {
                 // Client wants to join existing chat
                 joinExistingChat();
-
             } else {
                 // Invalid response
                 connection.send(new Message(MessageType.ERROR, "Invalid option. Disconnecting."));
                 connection.send(new Message(MessageType.DISCONNECT));
             }
+            if (!awaitingPort && roomHandler == null) {
+                connection.close();
+            }
         }
 
-        private void createNewChat() throws IOException {
-            // Assign new port
-            int chatPort = getNextChatPort();
-            String chatName = "Chat_" + chatPort;
+        @Override
+        public void onClose() {
+            if (roomHandler != null) {
+                roomHandler.onClose();
+            }
+            if (node != null) {
+                nodeDirectory.remove(node);
+                System.out.println("Room node " + node.getAddress() + " disconnected");
+            }
+        }
 
+        private void reportLoad(Message heartbeat) {
             try {
-                // Start new ChatServer with ServerSocket initialized
-                ChatServer chatServer = new ChatServer(chatPort, chatName);
-                new Thread(chatServer).start();
+                // "<load>" or "<load> <closed room id>,<closed room id>,..."
+                String[] parts = heartbeat.getData().split(" ", 2);
+                List<Integer> closedRooms = new ArrayList<>();
+                if (parts.length > 1) {
+                    for (String roomId : parts[1].split(",")) {
+                        closedRooms.add(Integer.parseInt(roomId));
+                    }
+                }
+                NodeDirectory.Node reported = nodeDirectory.heartbeat(heartbeat.getHost(), heartbeat.getPort(), Integer.parseInt(parts[0]), closedRooms);
+                if (node == null) {
+                    System.out.println("Room node " + reported.getAddress() + " registered");
+                }
+                node = reported;
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid heartbeat from room node: " + heartbeat.getData());
+            }
+        }
+
+        // On a room node: the client names a room placed here, which is created on first use
+        private void enterPlacedRoom(Message response) throws IOException {
+            if (response.getType() != MessageType.CHAT_SELECTED) {
+                connection.send(new Message(MessageType.ERROR, "Invalid response."));
+                return;
+            }
+            try {
+                int roomId = Integer.parseInt(response.getData());
+                ChatServer chatServer = chatRooms.get(roomId);
+                if (chatServer == null) {
+                    ChatServer created = newChatServer(roomId, "Chat_" + roomId);
+                    chatServer = chatRooms.addIfAbsent(roomId, created);
+                    if (chatServer == null) {
+                        serverStats.register(created);
+                        System.out.println("ChatServer '" + created.getChatName() + "' created with id " + roomId);
+                        chatServer = created;
+                    }
+                }
+                enterRoom(chatServer);
+            } catch (NumberFormatException e) {
+                connection.send(new Message(MessageType.ERROR, "Invalid room id."));
+            }
+        }
+
+        // A client whose connection dropped takes its session in the room back
+        private void resumeSession(Message request) throws IOException {
+            ChatServer chatServer = chatRooms.get(request.getChatRoomId());
+            if (chatServer == null) {
+                connection.send(new Message(MessageType.ERROR, "This chat no longer exists."));
+                return;
+            }
+            roomHandler = chatServer.resumeHandler(connection, request);
+            roomHandler.onOpen();
+        }
 
-                // Add to chatRooms
-                synchronized (chatRooms) {
-                    chatRooms.put(chatPort, chatName);
+        // The room continues on this connection, starting with its own handshake
+        private void enterRoom(ChatServer chatServer) throws IOException {
+            roomHandler = chatServer.newHandler(connection);
+            roomHandler.onOpen();
+        }
+
+        private void createNewChat() throws IOException {
+            if (hosting() == RoomHosting.DIRECTORY) {
+                int roomId = nextRoomId.getAndIncrement();
+                NodeDirectory.Node placed = nodeDirectory.place(roomId);
+                if (placed == null) {
+                    connection.send(new Message(MessageType.ERROR, "No room nodes available. Please try again later."));
+                    return;
                 }
+                System.out.println("Chat 'Chat_" + roomId + "' placed on room node " + placed.getAddress());
+                connection.send(new Message(MessageType.CHAT_CREATED, "New chat created with id " + roomId + " on " + placed.getAddress() + ". Connecting you to the chat...",
+                        null, 0, null, "Chat_" + roomId, roomId, placed.getHost(), placed.getPort()));
+                return;
+            }
+            if (sharedRooms()) {
+                // A shared room is only a registry entry
+                int roomId = nextRoomId.getAndIncrement();
+                ChatServer chatServer = newChatServer(roomId, "Chat_" + roomId);
+                addRoom(roomId, chatServer, null);
+                System.out.println("ChatServer '" + chatServer.getChatName() + "' created with id " + roomId);
+                connection.send(new Message(MessageType.CHAT_CREATED, "New chat created with id " + roomId + ". Connecting you to the chat...",
+                        null, 0, null, chatServer.getChatName(), roomId));
+                enterRoom(chatServer);
+                return;
+            }
 
-                // Inform client and automatically connect them to the new chat
-                connection.send(new Message(MessageType.CHAT_CREATED, "New chat created on port " + chatPort + ". Connecting you to the chat..."));
+            // Assign a port, reusing those of closed rooms
+            int chatPort = chatRooms.allocatePort();
+            String chatName = "Chat_" + chatPort;
 
+            ChatServer chatServer = null;
+            Closeable listener;
+            try {
+                // Start new ChatServer with its port bound before the client is told about it
+                chatServer = newChatServer(chatPort, chatName);
+                listener = transport.listen(chatPort, track(chatPort, chatServer::newHandler));
             } catch (IOException e) {
+                if (chatServer != null && historyStore != null) {
+                    historyStore.close(chatName);
+                }
+                // A port something else is bound to would fail the same way every time it came back
+                if (!(e instanceof BindException)) {
+                    chatRooms.releasePort(chatPort);
+                }
                 System.out.println("Error starting ChatServer: " + e.getMessage());
                 connection.send(new Message(MessageType.ERROR, "Unable to create chat. Please try again later."));
+                return;
             }
+            System.out.println("ChatServer '" + chatName + "' started on port " + chatPort);
+
+            // Add to chatRooms
+            addRoom(chatPort, chatServer, listener);
+
+            // The client stays on this connection; the port is still there for clients that reconnect
+            connection.send(new Message(MessageType.CHAT_CREATED, "New chat created on port " + chatPort + ". Connecting you to the chat...",
+                    null, 0, null, chatName, chatPort));
+            enterRoom(chatServer);
         }
 
         private void joinExistingChat() throws IOException {
             // Send list of available chats
-            StringBuilder chatListBuilder = new StringBuilder();
-            synchronized (chatRooms) {
-                if (chatRooms.isEmpty()) {
-                    connection.send(new Message(MessageType.ERROR, "No available chats. Please create a new chat."));
-                    createNewChat();
-                    return;
-                }
-                chatListBuilder.append("Available chats:\n");
-                for (Map.Entry<Integer, String> entry : chatRooms.entrySet()) {
-                    chatListBuilder.append("Chat name: ").append(entry.getValue()).append(", Port: ").append(entry.getKey()).append("\n");
+            if (hosting() == RoomHosting.DIRECTORY ? nodeDirectory.getRooms().isEmpty() : chatRooms.size() == 0) {
+                connection.send(new Message(MessageType.ERROR, "No available chats. Please create a new chat."));
+                createNewChat();
+                return;
+            }
+            String keyName = hosting() == RoomHosting.PORTS ? "Port" : "Id";
+            StringBuilder chatListBuilder = new StringBuilder("Available chats:\n");
+            for (Map.Entry<Integer, NodeDirectory.Node> entry : nodeDirectory.getRooms().entrySet()) {
+                chatListBuilder.append("Chat name: Chat_").append(entry.getKey()).append(", Id: ").append(entry.getKey())
+                        .append(", Node: ").append(entry.getValue().getAddress()).append("\n");
+            }
+            for (Map.Entry<Integer, ChatServer> entry : chatRooms.getRooms().entrySet()) {
+                if (entry.getValue().getState() == RoomState.CLOSING) {
+                    continue;
                 }
+                chatListBuilder.append("Chat name: ").append(entry.getValue().getChatName()).append(", ").append(keyName).append(": ").append(entry.getKey()).append("\n");
             }
             connection.send(new Message(MessageType.CHAT_LIST, chatListBuilder.toString()));
 
-            // Ask client to enter port number
-            connection.send(new Message(MessageType.PORT_REQUEST, "Enter the port number of the chat you want to join:"));
-            Message response = connection.receive();
+            // Ask client to enter port number or room id
+            String prompt = hosting() != RoomHosting.PORTS ? "Enter the id of the chat you want to join:" : "Enter the port number of the chat you want to join:";
+            connection.send(new Message(MessageType.PORT_REQUEST, prompt));
+            awaitingPort = true;
+        }
+
+        private void selectChat(Message response) throws IOException {
+            awaitingPort = false;
             System.out.println("Received message: " + response.getType() + " with data: " + response.getData());
 
             if (response.getType() == MessageType.CHAT_SELECTED) {
                 try {
                     int port = Integer.parseInt(response.getData());
-                    synchronized (chatRooms) {
-                        if (chatRooms.containsKey(port)) {
-                            connection.send(new Message(MessageType.CHAT_SELECTED, "Connecting you to chat on port " + port));
-                        } else {
-                            connection.send(new Message(MessageType.ERROR, "Invalid port number."));
-                        }
+                    ChatServer chatServer = chatRooms.get(port);
+                    NodeDirectory.Node placed = nodeDirectory.get(port);
+                    if (placed != null) {
+                        connection.send(new Message(MessageType.CHAT_SELECTED, "Connecting you to chat Chat_" + port + " on " + placed.getAddress(),
+                                null, 0, null, "Chat_" + port, port, placed.getHost(), placed.getPort()));
+                    } else if (chatServer != null) {
+                        connection.send(new Message(MessageType.CHAT_SELECTED, "Connecting you to chat " + chatServer.getChatName(),
+                                null, 0, null, chatServer.getChatName(), port));
+                        enterRoom(chatServer);
+                    } else {
+                        connection.send(new Message(MessageType.ERROR, "Invalid port number."));
                     }
                 } catch (NumberFormatException e) {
                     connection.send(new Message(MessageType.ERROR, "Invalid port number."));
@@ -126,9 +397,5 @@ public class MainServer {
                 connection.send(new Message(MessageType.ERROR, "Invalid response."));
             }
         }
-
-        private synchronized int getNextChatPort() {
-            return nextChatPort++;
-        }
     }
 }
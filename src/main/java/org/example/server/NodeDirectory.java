@@ -0,0 +1,129 @@
+package org.example.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Room nodes a directory server knows from their heartbeats, and the rooms placed on them. A new
+// room goes to the live node with the lowest load, where rooms placed since the node's last
+// heartbeat count as load too, so a burst of creations does not all land on one node. Rooms a node
+// reports closed are dropped, and a node whose heartbeats stop is dropped with all its rooms.
+public class NodeDirectory {
+    private final long expiryNanos;
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Integer, Node> rooms = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Integer, Node> roomsView = Collections.unmodifiableNavigableMap(rooms);
+    private volatile ScheduledExecutorService reaper;
+
+    // Nodes silent for longer than expiryNanos get no new rooms and are forgotten by the reaper
+    public NodeDirectory(long expiryNanos) {
+        this.expiryNanos = expiryNanos;
+    }
+
+    public Node heartbeat(String host, int port, int load, Collection<Integer> closedRooms) {
+        Node node = nodes.computeIfAbsent(host + ":" + port, address -> new Node(host, port));
+        node.update(load);
+        for (int roomId : closedRooms) {
+            rooms.remove(roomId, node);
+        }
+        return node;
+    }
+
+    public void startReaper(long periodMillis) {
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "node-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::removeExpired, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stopReaper() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+    }
+
+    public void removeExpired() {
+        long now = System.nanoTime();
+        for (Node node : nodes.values()) {
+            if (now - node.lastHeartbeat > expiryNanos) {
+                remove(node);
+                System.out.println("Room node " + node.getAddress() + " stopped sending heartbeats and was removed");
+            }
+        }
+    }
+
+    // Forgets the node and every room placed on it
+    public void remove(Node node) {
+        nodes.remove(node.getAddress(), node);
+        rooms.values().removeIf(placed -> placed == node);
+    }
+
+    // Null when no node is alive
+    public Node place(int roomId) {
+        long now = System.nanoTime();
+        Node best = null;
+        for (Node node : nodes.values()) {
+            if (now - node.lastHeartbeat <= expiryNanos && (best == null || node.estimatedLoad() < best.estimatedLoad())) {
+                best = node;
+            }
+        }
+        if (best != null) {
+            best.placedSinceHeartbeat.incrementAndGet();
+            rooms.put(roomId, best);
+        }
+        return best;
+    }
+
+    public Node get(int roomId) {
+        return rooms.get(roomId);
+    }
+
+    public NavigableMap<Integer, Node> getRooms() {
+        return roomsView;
+    }
+
+    public static class Node {
+        private final String host;
+        private final int port;
+        private final AtomicInteger placedSinceHeartbeat = new AtomicInteger();
+        private volatile int load;
+        private volatile long lastHeartbeat;
+
+        Node(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        private void update(int load) {
+            this.load = load;
+            placedSinceHeartbeat.set(0);
+            lastHeartbeat = System.nanoTime();
+        }
+
+        private int estimatedLoad() {
+            return load + placedSinceHeartbeat.get();
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getAddress() {
+            return host + ":" + port;
+        }
+    }
+}
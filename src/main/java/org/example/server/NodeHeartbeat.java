@@ -0,0 +1,89 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.example.chat.Connection;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+
+// Keeps a room node registered with its directory: reports the node's address and load (its open
+// sessions) at a fixed interval over one connection, reconnecting whenever that connection fails.
+// The data is the load, followed by the ids of rooms closed since the last heartbeat, e.g. "12 3,7".
+public class NodeHeartbeat {
+    private final String directoryHost;
+    private final int directoryPort;
+    private final String advertisedHost;
+    private final int port;
+    private final IntSupplier load;
+    private final Queue<Integer> closedRooms = new ConcurrentLinkedQueue<>();
+    // Taken from closedRooms and not yet delivered; only touched by the heartbeat thread
+    private final List<Integer> unreported = new ArrayList<>();
+    private Connection connection;
+    private volatile ScheduledExecutorService scheduler;
+
+    public NodeHeartbeat(String directory, String advertisedHost, int port, IntSupplier load) {
+        int separator = directory.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected --directory=host:port but got: " + directory);
+        }
+        this.directoryHost = directory.substring(0, separator);
+        this.directoryPort = Integer.parseInt(directory.substring(separator + 1));
+        this.advertisedHost = advertisedHost;
+        this.port = port;
+        this.load = load;
+    }
+
+    public void start(long intervalMillis) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "node-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::beat, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The connection to the directory closes with the heartbeat thread
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void roomClosed(int roomId) {
+        closedRooms.add(roomId);
+    }
+
+    private void beat() {
+        Integer closed;
+        while ((closed = closedRooms.poll()) != null) {
+            unreported.add(closed);
+        }
+        StringBuilder data = new StringBuilder().append(load.getAsInt());
+        for (int i = 0; i < unreported.size(); i++) {
+            data.append(i == 0 ? ' ' : ',').append(unreported.get(i));
+        }
+        try {
+            if (connection == null) {
+                connection = new Connection(new Socket(directoryHost, directoryPort));
+                System.out.println("Reporting to directory " + directoryHost + ":" + directoryPort);
+            }
+            connection.send(new Message(MessageType.NODE_HEARTBEAT, data.toString(),
+                    null, 0, null, null, 0, advertisedHost, port));
+            unreported.clear();
+        } catch (IOException e) {
+            System.out.println("Error reporting to directory: " + e.getMessage());
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+}
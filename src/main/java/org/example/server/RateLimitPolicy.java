@@ -0,0 +1,12 @@
+package org.example.server;
+
+// What happens to a message over the user's or the room's rate limit
+public enum RateLimitPolicy {
+    // Dropped, the sender gets an ERROR
+    REJECT,
+    // Queued on the room timer until a token is available, while the connection keeps being read; once
+    // a member has 100 messages held back, further ones are rejected as with REJECT
+    DELAY,
+    // The sender is disconnected
+    DISCONNECT
+}
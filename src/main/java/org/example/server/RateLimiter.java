@@ -0,0 +1,38 @@
+package org.example.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket of rate tokens per second holding up to burst tokens. Instead of a token count it
+// keeps the time at which the bucket will be full again, so taking a token is one CAS on a long.
+public class RateLimiter {
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(double rate, int burst) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.capacityNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    // Takes a token and returns 0, or takes nothing and returns the nanoseconds until one is available
+    public long tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long excess = next - now - capacityNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // Gives back a token taken by tryAcquire for a message that was not let through after all
+    public void refund() {
+        fullAt.addAndGet(-intervalNanos);
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.server.net.OutboundStats;
+import org.example.server.net.SessionHandler;
+
+// Periodically prints thread count and heap usage against the number of open client sessions,
+// so the server modes can be compared by how many clients fit per GB of heap.
+public class ResourceReport {
+    private static final long MB = 1024 * 1024;
+    private static final long GB = 1024 * MB;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+    private final OutboundStats outboundStats;
+    // Traffic is read from the open sessions and added up here once they close
+    private final Set<MessageChannel> openChannels = ConcurrentHashMap.newKeySet();
+    private final LongAdder closedBytesIn = new LongAdder();
+    private final LongAdder closedBytesOut = new LongAdder();
+    private volatile ScheduledExecutorService scheduler;
+
+    public ResourceReport(OutboundStats outboundStats) {
+        this.outboundStats = outboundStats;
+    }
+
+    public int getSessionCount() {
+        return sessions.get();
+    }
+
+    public long getBytesIn() {
+        long bytes = closedBytesIn.sum();
+        for (MessageChannel channel : openChannels) {
+            bytes += channel.getBytesIn();
+        }
+        return bytes;
+    }
+
+    public long getBytesOut() {
+        long bytes = closedBytesOut.sum();
+        for (MessageChannel channel : openChannels) {
+            bytes += channel.getBytesOut();
+        }
+        return bytes;
+    }
+
+    public Function<MessageChannel, SessionHandler> track(Function<MessageChannel, SessionHandler> handlers) {
+        return connection -> new CountedHandler(connection, handlers.apply(connection));
+    }
+
+    public void start(int intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "resource-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::print, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Stops the report and closes every open session
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (MessageChannel channel : openChannels) {
+            channel.close();
+        }
+    }
+
+    public void print() {
+        int sessionCount = sessions.get();
+        long heapUsed = memory.getHeapMemoryUsage().getUsed();
+        StringBuilder report = new StringBuilder("Resources: sessions=").append(sessionCount)
+                .append(", threads=").append(threads.getThreadCount())
+                .append(" (peak ").append(threads.getPeakThreadCount()).append(")")
+                .append(", heap used=").append(heapUsed / MB).append(" MB");
+        long perSession = sessionCount > 0 ? Math.max(heapUsed - baselineHeap, 0) / sessionCount : 0;
+        if (perSession > 0) {
+            report.append(", ~").append(perSession / 1024).append(" KB/session")
+                    .append(", ~").append(GB / perSession).append(" sessions/GB");
+        }
+        report.append(", outbound depth=").append(outboundStats.getDepth())
+                .append(" (max ").append(outboundStats.getMaxDepth()).append(")")
+                .append(", dropped=").append(outboundStats.getDropped())
+                .append(", coalesced=").append(outboundStats.getCoalesced())
+                .append(", slow disconnects=").append(outboundStats.getDisconnected());
+        System.out.println(report);
+        System.out.println("  frames per write: " + outboundStats.getBatchSize().summary());
+        System.out.println("  flush latency (us): " + outboundStats.getFlushLatency().summary());
+    }
+
+    private class CountedHandler implements SessionHandler {
+        private final MessageChannel channel;
+        private final SessionHandler delegate;
+
+        CountedHandler(MessageChannel channel, SessionHandler delegate) {
+            this.channel = channel;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onOpen() throws IOException {
+            sessions.incrementAndGet();
+            openChannels.add(channel);
+            delegate.onOpen();
+        }
+
+        @Override
+        public void onMessage(Message message) throws IOException {
+            delegate.onMessage(message);
+        }
+
+        @Override
+        public void onClose() {
+            sessions.decrementAndGet();
+            if (openChannels.remove(channel)) {
+                closedBytesIn.add(channel.getBytesIn());
+                closedBytesOut.add(channel.getBytesOut());
+            }
+            delegate.onClose();
+        }
+    }
+}
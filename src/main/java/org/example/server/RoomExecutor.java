@@ -0,0 +1,103 @@
+package org.example.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs the work of all rooms on one shared work-stealing pool. Every room has a Lane, a serial queue
+// whose tasks run one at a time in the order they were added, so a room's broadcasts keep their
+// order without a thread of their own and a quiet room holds no thread at all. Lanes with work wait
+// in one queue shared by all rooms, and each pool task runs at most batch tasks of the lane at its
+// head, which goes to the back if it has more. Busy rooms so take turns with the others instead of
+// starving them, and idle workers steal the turns queued on busy ones.
+public class RoomExecutor {
+    private final ForkJoinPool pool;
+    private final int batch;
+    // Lanes waiting for a turn; each has one pool task submitted for it
+    private final Queue<Lane> ready = new ConcurrentLinkedQueue<>();
+    // Times a lane gave up its worker with tasks still waiting
+    private final LongAdder yields = new LongAdder();
+
+    public RoomExecutor(int threads, int batch) {
+        this.batch = batch;
+        // Async mode takes tasks in the order they were queued, as an event queue should
+        this.pool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("room-worker-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+    }
+
+    // Tasks already queued still run
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public Lane newLane() {
+        return new Lane();
+    }
+
+    public long getSteals() {
+        return pool.getStealCount();
+    }
+
+    public long getYields() {
+        return yields.sum();
+    }
+
+    // A worker that re-submits from its own queue would run that task again before anything else,
+    // so the lane is taken from the shared queue rather than bound to the task
+    private void runNext() {
+        Lane lane = ready.poll();
+        if (lane != null) {
+            lane.run();
+        }
+    }
+
+    public class Lane implements Executor {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Lane() {
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                ready.add(this);
+                pool.execute(RoomExecutor.this::runNext);
+            }
+        }
+
+        private void run() {
+            int ran = 0;
+            Runnable task;
+            while (ran < batch && (task = tasks.poll()) != null) {
+                ran++;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Error in room task: " + e);
+                }
+            }
+            // Cleared before looking again, so a task added meanwhile is never left without a run
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                if (ran == batch) {
+                    yields.increment();
+                }
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.example.chat.FileTransfer;
+
+// Files shared in a room. An upload is written chunk by chunk into a file of its own as the chunks
+// arrive, and a download is a FileTransfer the member's channel reads from disk into the socket,
+// so no file is ever held in memory. The oldest files are deleted once a room has too many, or
+// to make room under the room's quota, which counts unfinished uploads at their full size.
+//
+// Files are described as "<id> <size> <name>", the data of FILE_CHUNK and FILE_SHARED messages.
+public class RoomFiles {
+    private static final int MAX_FILES = 100;
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxSize;
+    private final long maxTotal;
+    // Bytes of the shared files and of the uploads under way; guarded by this
+    private long totalBytes;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Map<Integer, SharedFile> files = new LinkedHashMap<>();
+
+    public RoomFiles(Path directory, int roomId, long maxSize, long maxTotal) {
+        this.directory = directory;
+        this.prefix = "room" + roomId + "-";
+        this.maxSize = maxSize;
+        this.maxTotal = maxTotal;
+    }
+
+    // Starts an upload from the first chunk's description; the id in it is ignored
+    public Upload startUpload(String description, String uploader) throws IOException {
+        int first = description != null ? description.indexOf(' ') : -1;
+        int second = first >= 0 ? description.indexOf(' ', first + 1) : -1;
+        if (second < 0) {
+            throw new IOException("Invalid file description");
+        }
+        long size;
+        try {
+            size = Long.parseLong(description.substring(first + 1, second));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid file size");
+        }
+        // Only the last part of a path, and nothing that would break the description
+        String name = description.substring(second + 1);
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        if (name.isEmpty() || name.indexOf('\n') >= 0 || size < 0) {
+            throw new IOException("Invalid file name or size");
+        }
+        if (size > maxSize) {
+            throw new IOException("The file is larger than the limit of " + maxSize / (1024 * 1024) + " MB");
+        }
+        reserve(size);
+        try {
+            Files.createDirectories(directory);
+            Path path = Files.createTempFile(directory, prefix, ".file");
+            return new Upload(nextId.getAndIncrement(), name, size, uploader, path);
+        } catch (IOException e) {
+            release(size);
+            throw e;
+        }
+    }
+
+    // Deletes the oldest files until the upload fits the quota; uploads under way are never cut short
+    private synchronized void reserve(long size) throws IOException {
+        Iterator<SharedFile> oldest = files.values().iterator();
+        while (totalBytes + size > maxTotal && oldest.hasNext()) {
+            SharedFile file = oldest.next();
+            file.delete();
+            oldest.remove();
+            totalBytes -= file.size;
+        }
+        if (totalBytes + size > maxTotal) {
+            throw new IOException("The room has no space left for the file, try again later");
+        }
+        totalBytes += size;
+    }
+
+    private synchronized void release(long size) {
+        totalBytes -= size;
+    }
+
+    public synchronized SharedFile get(int id) {
+        return files.get(id);
+    }
+
+    public synchronized List<SharedFile> list() {
+        return new ArrayList<>(files.values());
+    }
+
+    // When the room closes
+    public synchronized void deleteAll() {
+        for (SharedFile file : files.values()) {
+            file.delete();
+        }
+        files.clear();
+        totalBytes = 0;
+    }
+
+    private synchronized void add(SharedFile file) {
+        files.put(file.id, file);
+        Iterator<SharedFile> oldest = files.values().iterator();
+        while (files.size() > MAX_FILES) {
+            // A download already under way keeps reading the deleted file
+            SharedFile removed = oldest.next();
+            removed.delete();
+            oldest.remove();
+            totalBytes -= removed.size;
+        }
+    }
+
+    // Used by one thread at a time
+    public class Upload {
+        private final int id;
+        private final String name;
+        private final long size;
+        private final String uploader;
+        private final Path path;
+        private final FileChannel channel;
+        private long received;
+
+        private Upload(int id, String name, long size, String uploader, Path path) throws IOException {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.uploader = uploader;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        }
+
+        // Writes the next chunk; returns the shared file once the last one is in
+        public SharedFile write(long offset, byte[] payload) throws IOException {
+            if (offset != received || payload == null || received + payload.length > size) {
+                throw new IOException("The file chunks arrived out of order");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            received += payload.length;
+            if (received < size) {
+                return null;
+            }
+            channel.close();
+            SharedFile file = new SharedFile(id, name, size, uploader, path);
+            add(file);
+            return file;
+        }
+
+        // An upload that failed or was given up by the uploader
+        public void abandon() {
+            release(size);
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.out.println("Error deleting upload " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static class SharedFile {
+        private final int id;
+        private final String name;
+        private final long size;
+        private final String uploader;
+        private final Path path;
+
+        private SharedFile(int id, String name, long size, String uploader, Path path) {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.uploader = uploader;
+            this.path = path;
+        }
+
+        public String getUploader() {
+            return uploader;
+        }
+
+        public String describe() {
+            return id + " " + size + " " + name;
+        }
+
+        // The whole file, to be handed to a channel which closes it when done
+        public FileTransfer open() throws IOException {
+            return new FileTransfer(describe(), FileChannel.open(path, StandardOpenOption.READ), 0, size);
+        }
+
+        private void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.out.println("Error deleting shared file " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
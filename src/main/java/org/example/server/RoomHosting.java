@@ -0,0 +1,12 @@
+package org.example.server;
+
+public enum RoomHosting {
+    // Every room listens on a port of its own; clients from the lobby stay on their connection
+    PORTS,
+    // Every room lives behind the main port and clients stay on their lobby connection
+    SHARED,
+    // Only a directory: rooms are placed on room nodes and clients are sent there
+    DIRECTORY,
+    // A room node reporting to a directory; clients name the room right after connecting
+    NODE
+}
@@ -0,0 +1,121 @@
+package org.example.server;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+
+// Membership of a room, versioned. Every join, leave and rename bumps the version and is recorded,
+// so members can be sent one delta with everything since the last flush instead of a message per
+// change, and a client that knows a version can ask for what changed since. The full list and the
+// user list are built once per version and reused until membership changes again.
+//
+// Deltas and snapshots are text: a "<from> <to>" line, then one "+id name", "-id name" or "~id name"
+// line per join, leave or rename. A snapshot starts with "= <version>" and lists every member with '+'.
+public class RoomPresence {
+    // Changes kept for clients asking for a delta; older versions get a snapshot
+    private static final int MAX_CHANGES = 1024;
+
+    private final Map<Integer, String> members = new LinkedHashMap<>();
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+    // Written under the lock, read without it to check for pending changes
+    private volatile long version;
+    private volatile long flushedVersion;
+    private Frame snapshot;
+    private Frame userList;
+
+    public synchronized void add(int id, String name) {
+        members.put(id, name);
+        record('+', id, name);
+    }
+
+    public synchronized void remove(int id) {
+        String name = members.remove(id);
+        if (name != null) {
+            record('-', id, name);
+        }
+    }
+
+    public synchronized void rename(int id, String name) {
+        members.put(id, name);
+        record('~', id, name);
+    }
+
+    public boolean hasPending() {
+        return flushedVersion != version;
+    }
+
+    // Everything since the last call, or null if nothing changed
+    public synchronized String takePending() {
+        if (!hasPending()) {
+            return null;
+        }
+        String delta = since(flushedVersion);
+        flushedVersion = version;
+        return delta;
+    }
+
+    // The changes after the given version, or a snapshot when they are no longer all kept
+    public synchronized String since(long known) {
+        if (known > version || (known < version && changes.peekFirst().version > known + 1)) {
+            return snapshotText();
+        }
+        StringBuilder delta = new StringBuilder().append(known).append(' ').append(version);
+        for (Change change : changes) {
+            if (change.version > known) {
+                delta.append('\n').append(change.kind).append(change.id).append(' ').append(change.name);
+            }
+        }
+        return delta.toString();
+    }
+
+    // PRESENCE message with every member, encoded once per version
+    public synchronized Frame snapshot() {
+        if (snapshot == null) {
+            snapshot = new Frame(new Message(MessageType.PRESENCE, snapshotText()));
+        }
+        return snapshot;
+    }
+
+    // USER_LIST message with the members' names, encoded once per version
+    public synchronized Frame userList() {
+        if (userList == null) {
+            userList = new Frame(new Message(MessageType.USER_LIST, String.join(", ", members.values())));
+        }
+        return userList;
+    }
+
+    private void record(char kind, int id, String name) {
+        changes.addLast(new Change(version + 1, kind, id, name));
+        if (changes.size() > MAX_CHANGES) {
+            changes.removeFirst();
+        }
+        snapshot = null;
+        userList = null;
+        version++;
+    }
+
+    private String snapshotText() {
+        StringBuilder text = new StringBuilder("= ").append(version);
+        for (Map.Entry<Integer, String> member : members.entrySet()) {
+            text.append("\n+").append(member.getKey()).append(' ').append(member.getValue());
+        }
+        return text.toString();
+    }
+
+    private static class Change {
+        final long version;
+        final char kind;
+        final int id;
+        final String name;
+
+        Change(long version, char kind, int id, String name) {
+            this.version = version;
+            this.kind = kind;
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
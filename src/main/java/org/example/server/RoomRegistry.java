@@ -0,0 +1,131 @@
+package org.example.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Open rooms, keyed by port or by room id when rooms share the main port. Lookups and listings
+// never lock. Rooms that stay empty for the idle timeout are closed, their listener is shut and
+// their port is handed out again.
+public class RoomRegistry {
+    private final ConcurrentNavigableMap<Integer, ChatServer> rooms = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Integer, ChatServer> roomsView = Collections.unmodifiableNavigableMap(rooms);
+    // Only rooms with a port of their own have a listener
+    private final Map<Integer, Closeable> listeners = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPort;
+    private final Queue<Integer> freePorts = new ConcurrentLinkedQueue<>();
+    // Releases whatever else the room holds once it is closed
+    private final Consumer<ChatServer> onClosed;
+    private volatile ScheduledExecutorService reaper;
+
+    public RoomRegistry(int firstPort, Consumer<ChatServer> onClosed) {
+        this.nextPort = new AtomicInteger(firstPort);
+        this.onClosed = onClosed;
+    }
+
+    // A port given up by a closed room if there is one, otherwise a new one
+    public int allocatePort() {
+        Integer port = freePorts.poll();
+        return port != null ? port : nextPort.getAndIncrement();
+    }
+
+    public void releasePort(int port) {
+        freePorts.add(port);
+    }
+
+    public void add(int key, ChatServer chatServer, Closeable listener) {
+        if (listener != null) {
+            listeners.put(key, listener);
+        }
+        rooms.put(key, chatServer);
+    }
+
+    // Adds the room unless one with the key exists already, which is returned instead
+    public ChatServer addIfAbsent(int key, ChatServer chatServer) {
+        return rooms.putIfAbsent(key, chatServer);
+    }
+
+    // Null if there is no such room or it is closing
+    public ChatServer get(int key) {
+        ChatServer chatServer = rooms.get(key);
+        return chatServer != null && chatServer.getState() != RoomState.CLOSING ? chatServer : null;
+    }
+
+    public NavigableMap<Integer, ChatServer> getRooms() {
+        return roomsView;
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    public void startReaper(int idleTimeoutSeconds) {
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "room-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        long period = Math.max(1, idleTimeoutSeconds / 4);
+        reaper.scheduleWithFixedDelay(() -> closeIdle(timeoutNanos), period, period, TimeUnit.SECONDS);
+    }
+
+    public void closeIdle(long timeoutNanos) {
+        long now = System.nanoTime();
+        for (Map.Entry<Integer, ChatServer> entry : rooms.entrySet()) {
+            ChatServer chatServer = entry.getValue();
+            if (chatServer.getState() == RoomState.IDLE && now - chatServer.getIdleSince() >= timeoutNanos && chatServer.close()) {
+                close(entry.getKey(), chatServer);
+            }
+        }
+    }
+
+    // When the server stops: every room goes, members or not, to onStopped instead of onClosed, and
+    // no port is handed out again
+    public void closeAll(Consumer<ChatServer> onStopped) {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        for (Map.Entry<Integer, ChatServer> entry : rooms.entrySet()) {
+            if (rooms.remove(entry.getKey(), entry.getValue())) {
+                closeListener(entry.getKey(), entry.getValue());
+                onStopped.accept(entry.getValue());
+            }
+        }
+    }
+
+    private void close(int key, ChatServer chatServer) {
+        rooms.remove(key, chatServer);
+        if (closeListener(key, chatServer)) {
+            releasePort(key);
+        }
+        onClosed.accept(chatServer);
+        System.out.println("ChatServer '" + chatServer.getChatName() + "' closed after being idle");
+    }
+
+    // False if the room had no listener of its own
+    private boolean closeListener(int key, ChatServer chatServer) {
+        Closeable listener = listeners.remove(key);
+        if (listener == null) {
+            return false;
+        }
+        try {
+            listener.close();
+        } catch (IOException e) {
+            System.out.println("Error closing listener of '" + chatServer.getChatName() + "': " + e.getMessage());
+        }
+        return true;
+    }
+}
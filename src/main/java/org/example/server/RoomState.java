@@ -0,0 +1,9 @@
+package org.example.server;
+
+// ACTIVE while anyone is in the room, IDLE once the last session has left, CLOSING after the
+// registry has decided to shut an idle room down. A closing room lets nobody in.
+public enum RoomState {
+    ACTIVE,
+    IDLE,
+    CLOSING
+}
@@ -0,0 +1,104 @@
+package org.example.server;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.example.chat.MessageChannel;
+import org.example.metrics.Histogram;
+
+// Numbers of one room. Broadcasts only touch striped counters; everything else is computed when
+// it is read, from the members themselves.
+public class RoomStats implements RoomStatsMBean {
+    private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Collection<MessageChannel> members;
+    private final LongAdder messages = new LongAdder();
+    // Messages over the user or room rate limit
+    private final LongAdder rateLimited = new LongAdder();
+    // Microseconds to hand one broadcast to every member
+    private final Histogram fanOutLatency = new Histogram();
+    // Previous reading of the message rate
+    private long rateMessages;
+    private long rateNanos = System.nanoTime();
+    private double rate;
+
+    public RoomStats(Collection<MessageChannel> members) {
+        this.members = members;
+    }
+
+    void broadcast(long fanOutNanos) {
+        messages.increment();
+        fanOutLatency.record(fanOutNanos / 1000);
+    }
+
+    void rateLimited() {
+        rateLimited.increment();
+    }
+
+    @Override
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public int getMembers() {
+        return members.size();
+    }
+
+    @Override
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    // Messages per second between two readings at least a second apart
+    @Override
+    public synchronized double getMessageRate() {
+        long now = System.nanoTime();
+        if (now - rateNanos >= RATE_INTERVAL) {
+            long count = messages.sum();
+            rate = (count - rateMessages) * (double) TimeUnit.SECONDS.toNanos(1) / (now - rateNanos);
+            rateMessages = count;
+            rateNanos = now;
+        }
+        return rate;
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return fanOutLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return fanOutLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getFanOutMaxMicros() {
+        return fanOutLatency.getMax();
+    }
+
+    // Traffic of the current members
+    @Override
+    public long getBytesIn() {
+        long bytes = 0;
+        for (MessageChannel member : members) {
+            bytes += member.getBytesIn();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getBytesOut() {
+        long bytes = 0;
+        for (MessageChannel member : members) {
+            bytes += member.getBytesOut();
+        }
+        return bytes;
+    }
+
+    public String summary() {
+        return String.format("members=%d, messages=%d (%.1f/s), rate limited=%d, bytes in=%d, out=%d%n  fan-out (us): %s",
+                getMembers(), getMessages(), getMessageRate(), getRateLimited(), getBytesIn(), getBytesOut(), fanOutLatency.summary());
+    }
+}
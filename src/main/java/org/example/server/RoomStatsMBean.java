@@ -0,0 +1,22 @@
+package org.example.server;
+
+// JMX view of one room
+public interface RoomStatsMBean {
+    int getMembers();
+
+    long getMessages();
+
+    double getMessageRate();
+
+    long getFanOutP50Micros();
+
+    long getFanOutP99Micros();
+
+    long getFanOutMaxMicros();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getRateLimited();
+}
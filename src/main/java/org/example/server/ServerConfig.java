@@ -0,0 +1,300 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageCodecs;
+import org.example.server.history.FsyncPolicy;
+import org.example.server.history.HistoryStore;
+import org.example.server.history.RecentFrames;
+import org.example.server.history.SearchIndex;
+import org.example.server.net.BlockingTransport;
+import org.example.server.net.NioTransport;
+import org.example.server.net.OutboundQueue;
+import org.example.server.net.OutboundStats;
+import org.example.server.net.OverflowPolicy;
+import org.example.server.net.TrafficRecorder;
+import org.example.server.net.Transport;
+import org.example.server.net.WriteBatching;
+
+// Server options, read from "--name=value" command line arguments.
+public class ServerConfig {
+    private int port = 12345;
+    // First port handed to a room with a port of its own
+    private int roomPort = 20000;
+    private ServerMode mode = ServerMode.BLOCKING;
+    private RoomHosting roomHosting = RoomHosting.PORTS;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private int reportIntervalSeconds;
+    private List<MessageCodec> codecs = MessageCodecs.parse(MessageCodecs.DEFAULT);
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private int writeBatchBytes = 64 * 1024;
+    private int writeWindowMicros;
+    private Path historyDirectory;
+    private int historySegmentMegabytes = 16;
+    // Segments a room keeps before deleting the oldest; 0 keeps them all
+    private int historySegments = 16;
+    private FsyncPolicy historyFsync = FsyncPolicy.PERIODIC;
+    private long historyFsyncIntervalMillis = 1000;
+    private int historyOnJoin = 20;
+    private int recentMessages = 64;
+    private int recentBytes = 64 * 1024;
+    private int roomIdleTimeoutSeconds = 300;
+    // Directory a room node reports to, as host:port
+    private String directory;
+    private String advertisedHost = "localhost";
+    private long heartbeatMillis = 1000;
+    // Messages per second and burst size; a rate of 0 turns the limit off
+    private double userRate = 10;
+    private int userBurst = 20;
+    private double roomRate;
+    private int roomBurst = 100;
+    private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.REJECT;
+    // Joins, leaves and renames are collected this long before members are told; 0 tells them at once
+    private long presenceIntervalMillis = 100;
+    // How long a member whose connection dropped may take the session back; 0 turns resumption off
+    private long resumeGraceMillis = 30000;
+    // Quiet connections are pinged after this long and closed after the idle timeout; 0 turns either off
+    private long pingIntervalMillis = 30000;
+    private long idleTimeoutMillis = 90000;
+    // Where rooms keep shared files, null turns file sharing off; the largest file a member may share,
+    // and all files of a room together
+    private Path fileDirectory;
+    private int maxFileMegabytes = 64;
+    private int maxRoomFileMegabytes = 1024;
+    // Newest messages of a room kept searchable; 0 turns /search off
+    private int searchMessages = 100000;
+    // Workers shared by all rooms, and the tasks a room runs before the next room gets a turn; 0 workers
+    // runs room work on the thread of the connection it came from
+    private int roomThreads = Runtime.getRuntime().availableProcessors();
+    private int roomBatch = 64;
+    // Capture file of all inbound traffic for TrafficReplay; null records nothing
+    private Path recordFile;
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            config.set(name, value);
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "port" -> port = Integer.parseInt(value);
+            case "room-port" -> roomPort = Integer.parseInt(value);
+            case "mode" -> mode = ServerMode.valueOf(value.toUpperCase());
+            case "rooms" -> roomHosting = RoomHosting.valueOf(value.toUpperCase());
+            case "event-loops" -> eventLoopThreads = Integer.parseInt(value);
+            case "report-interval" -> reportIntervalSeconds = Integer.parseInt(value);
+            case "codecs" -> codecs = MessageCodecs.parse(value);
+            case "outbound-queue" -> outboundQueueCapacity = Integer.parseInt(value);
+            case "overflow-policy" -> overflowPolicy = OverflowPolicy.valueOf(value.toUpperCase());
+            case "write-batch-bytes" -> writeBatchBytes = Integer.parseInt(value);
+            case "write-window-us" -> writeWindowMicros = Integer.parseInt(value);
+            case "history-dir" -> historyDirectory = Path.of(value);
+            case "history-segment-mb" -> historySegmentMegabytes = Integer.parseInt(value);
+            case "history-segments" -> historySegments = Integer.parseInt(value);
+            case "history-fsync" -> historyFsync = FsyncPolicy.valueOf(value.toUpperCase());
+            case "history-fsync-interval-ms" -> historyFsyncIntervalMillis = Long.parseLong(value);
+            case "history-on-join" -> historyOnJoin = Integer.parseInt(value);
+            case "recent-messages" -> recentMessages = Integer.parseInt(value);
+            case "recent-bytes" -> recentBytes = Integer.parseInt(value);
+            case "room-idle-timeout" -> roomIdleTimeoutSeconds = Integer.parseInt(value);
+            case "directory" -> directory = value;
+            case "advertised-host" -> advertisedHost = value;
+            case "heartbeat-ms" -> heartbeatMillis = Long.parseLong(value);
+            case "user-rate" -> userRate = Double.parseDouble(value);
+            case "user-burst" -> userBurst = Integer.parseInt(value);
+            case "room-rate" -> roomRate = Double.parseDouble(value);
+            case "room-burst" -> roomBurst = Integer.parseInt(value);
+            case "rate-limit-policy" -> rateLimitPolicy = RateLimitPolicy.valueOf(value.toUpperCase());
+            case "presence-interval-ms" -> presenceIntervalMillis = Long.parseLong(value);
+            case "resume-grace-ms" -> resumeGraceMillis = Long.parseLong(value);
+            case "ping-interval-ms" -> pingIntervalMillis = Long.parseLong(value);
+            case "idle-timeout-ms" -> idleTimeoutMillis = Long.parseLong(value);
+            case "file-dir" -> fileDirectory = Path.of(value);
+            case "max-file-mb" -> maxFileMegabytes = Integer.parseInt(value);
+            case "max-room-files-mb" -> maxRoomFileMegabytes = Integer.parseInt(value);
+            case "search-messages" -> searchMessages = Integer.parseInt(value);
+            case "record" -> recordFile = Path.of(value);
+            case "room-threads" -> roomThreads = Integer.parseInt(value);
+            case "room-batch" -> roomBatch = Integer.parseInt(value);
+            default -> throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    public Transport createTransport(OutboundStats outboundStats) throws IOException {
+        Supplier<OutboundQueue> outboundQueues = () -> new OutboundQueue(outboundQueueCapacity, overflowPolicy, outboundStats);
+        WriteBatching batching = new WriteBatching(writeBatchBytes, writeWindowMicros * 1000L);
+        return switch (mode) {
+            case BLOCKING -> new BlockingTransport(Executors.newCachedThreadPool(), codecs, outboundQueues, batching);
+            case VIRTUAL -> new BlockingTransport(virtualThreadExecutor(), codecs, outboundQueues, batching);
+            case NIO -> new NioTransport(eventLoopThreads, codecs, outboundQueues, batching);
+        };
+    }
+
+    // Null when room history is disabled
+    public HistoryStore createHistoryStore() {
+        if (historyDirectory == null) {
+            return null;
+        }
+        return new HistoryStore(historyDirectory, historySegmentMegabytes * 1024 * 1024, historySegments, historyFsync, historyFsyncIntervalMillis);
+    }
+
+    // Null when search is disabled
+    public SearchIndex createSearchIndex() {
+        if (searchMessages <= 0) {
+            return null;
+        }
+        return new SearchIndex(searchMessages);
+    }
+
+    // Null when rooms run their work on connection threads
+    public RoomExecutor createRoomExecutor() {
+        if (roomThreads <= 0) {
+            return null;
+        }
+        return new RoomExecutor(roomThreads, Math.max(1, roomBatch));
+    }
+
+    // Null when traffic is not recorded
+    public TrafficRecorder createTrafficRecorder() throws IOException {
+        if (recordFile == null) {
+            return null;
+        }
+        return new TrafficRecorder(recordFile, port);
+    }
+
+    // Null when file sharing is disabled
+    public RoomFiles createRoomFiles(int roomId) {
+        if (fileDirectory == null || maxFileMegabytes <= 0 || maxRoomFileMegabytes <= 0) {
+            return null;
+        }
+        return new RoomFiles(fileDirectory, roomId, maxFileMegabytes * 1024L * 1024L, maxRoomFileMegabytes * 1024L * 1024L);
+    }
+
+    // Null when the in-memory ring of recent messages is disabled
+    public RecentFrames createRecentFrames() {
+        if (recentMessages <= 0 || recentBytes <= 0) {
+            return null;
+        }
+        return new RecentFrames(recentMessages, recentBytes);
+    }
+
+    // Null when users are not rate limited
+    public RateLimiter createUserRateLimiter() {
+        return userRate > 0 ? new RateLimiter(userRate, userBurst) : null;
+    }
+
+    // Null when rooms are not rate limited
+    public RateLimiter createRoomRateLimiter() {
+        return roomRate > 0 ? new RateLimiter(roomRate, roomBurst) : null;
+    }
+
+    // Looked up reflectively so the server still builds and runs on runtimes without virtual threads
+    private static Executor virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21 or newer, falling back to platform threads.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getRoomPort() {
+        return roomPort;
+    }
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    public RoomHosting getRoomHosting() {
+        return roomHosting;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    public List<MessageCodec> getCodecs() {
+        return codecs;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getWriteBatchBytes() {
+        return writeBatchBytes;
+    }
+
+    public int getWriteWindowMicros() {
+        return writeWindowMicros;
+    }
+
+    public int getHistoryOnJoin() {
+        return historyOnJoin;
+    }
+
+    public int getRoomIdleTimeoutSeconds() {
+        return roomIdleTimeoutSeconds;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getAdvertisedHost() {
+        return advertisedHost;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    public long getPresenceIntervalMillis() {
+        return presenceIntervalMillis;
+    }
+
+    public long getResumeGraceMillis() {
+        return resumeGraceMillis;
+    }
+
+    public long getPingIntervalMillis() {
+        return pingIntervalMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+}
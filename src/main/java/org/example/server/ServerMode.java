@@ -0,0 +1,10 @@
+package org.example.server;
+
+public enum ServerMode {
+    // A platform thread per client and per listening port
+    BLOCKING,
+    // Same blocking code, but every client and listening port runs on a virtual thread
+    VIRTUAL,
+    // A few selector threads shared by all clients
+    NIO
+}
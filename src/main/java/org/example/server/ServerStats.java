@@ -0,0 +1,159 @@
+package org.example.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.example.metrics.Histogram;
+import org.example.server.net.IdleMonitor;
+import org.example.server.net.OutboundStats;
+
+// Server-wide numbers, published over JMX together with the stats of every room
+public class ServerStats implements ServerStatsMBean {
+    private static final String DOMAIN = "org.example.chat";
+
+    private final int port;
+    private final ResourceReport resourceReport;
+    private final OutboundStats outboundStats;
+    private final IdleMonitor idleMonitor;
+    // Null when rooms have no shared executor
+    private final RoomExecutor roomExecutor;
+    private final RoomRegistry rooms;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // Microseconds from a room asking for a name until it accepted one
+    private final Histogram handshakeLatency = new Histogram();
+    private final LongAdder rateLimited = new LongAdder();
+
+    public ServerStats(int port, ResourceReport resourceReport, OutboundStats outboundStats, IdleMonitor idleMonitor,
+                       RoomExecutor roomExecutor, RoomRegistry rooms) {
+        this.port = port;
+        this.resourceReport = resourceReport;
+        this.outboundStats = outboundStats;
+        this.idleMonitor = idleMonitor;
+        this.roomExecutor = roomExecutor;
+        this.rooms = rooms;
+    }
+
+    void handshakeCompleted(long nanos) {
+        handshakeLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void rateLimited() {
+        rateLimited.increment();
+    }
+
+    public void register() {
+        register(this, "type=Server,port=" + port);
+    }
+
+    public void unregister() {
+        unregister("type=Server,port=" + port);
+    }
+
+    public void register(ChatServer chatServer) {
+        register(chatServer.getStats(), roomKey(chatServer));
+    }
+
+    public void unregister(ChatServer chatServer) {
+        unregister(roomKey(chatServer));
+    }
+
+    private String roomKey(ChatServer chatServer) {
+        return "type=Room,port=" + port + ",name=" + ObjectName.quote(chatServer.getChatName());
+    }
+
+    private static void unregister(String key) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(DOMAIN + ":" + key));
+        } catch (JMException e) {
+            System.out.println("Error unregistering " + key + " from JMX: " + e.getMessage());
+        }
+    }
+
+    private static void register(Object mbean, String key) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(DOMAIN + ":" + key));
+        } catch (JMException e) {
+            System.out.println("Error registering " + key + " with JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getSessions() {
+        return resourceReport.getSessionCount();
+    }
+
+    @Override
+    public int getRooms() {
+        return rooms.size();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return threads.getThreadCount();
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+        return outboundStats.getDepth();
+    }
+
+    @Override
+    public long getMaxOutboundQueueDepth() {
+        return outboundStats.getMaxDepth();
+    }
+
+    @Override
+    public long getHandshakeP50Micros() {
+        return handshakeLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getHandshakeP99Micros() {
+        return handshakeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return resourceReport.getBytesIn();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return resourceReport.getBytesOut();
+    }
+
+    @Override
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public long getIdlePings() {
+        return idleMonitor.getPings();
+    }
+
+    @Override
+    public long getIdleEvictions() {
+        return idleMonitor.getEvictions();
+    }
+
+    @Override
+    public long getRoomTaskSteals() {
+        return roomExecutor != null ? roomExecutor.getSteals() : 0;
+    }
+
+    @Override
+    public long getRoomTaskYields() {
+        return roomExecutor != null ? roomExecutor.getYields() : 0;
+    }
+
+    public String summary() {
+        return String.format("sessions=%d, rooms=%d, threads=%d, outbound queue depth=%d (max %d), rate limited=%d, idle pings=%d, evictions=%d, room steals=%d, yields=%d, bytes in=%d, out=%d%n  handshake (us): %s",
+                getSessions(), getRooms(), getThreadCount(), getOutboundQueueDepth(), getMaxOutboundQueueDepth(),
+                getRateLimited(), getIdlePings(), getIdleEvictions(), getRoomTaskSteals(), getRoomTaskYields(), getBytesIn(), getBytesOut(),
+                handshakeLatency.summary());
+    }
+}
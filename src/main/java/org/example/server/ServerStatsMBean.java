@@ -0,0 +1,33 @@
+package org.example.server;
+
+// JMX view of the whole server
+public interface ServerStatsMBean {
+    int getSessions();
+
+    int getRooms();
+
+    int getThreadCount();
+
+    long getOutboundQueueDepth();
+
+    long getMaxOutboundQueueDepth();
+
+    long getHandshakeP50Micros();
+
+    long getHandshakeP99Micros();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getRateLimited();
+
+    long getIdlePings();
+
+    long getIdleEvictions();
+
+    // Room turns taken by an idle worker from a busy one, and turns a room ended with work left
+    long getRoomTaskSteals();
+
+    long getRoomTaskYields();
+}
@@ -0,0 +1,11 @@
+package org.example.server.history;
+
+// When appended messages are forced from the mapped segments to disk
+public enum FsyncPolicy {
+    // After every append; nothing is lost on a crash, but every broadcast waits for the disk
+    PER_WRITE,
+    // On a fixed interval by a background thread
+    PERIODIC,
+    // Whenever the operating system writes back dirty pages
+    OS
+}
@@ -0,0 +1,88 @@
+package org.example.server.history;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Opens one RoomLog per room below a common directory, each keeping up to maxSegments segments,
+// and, with the PERIODIC policy, forces all of them to disk from a single background thread.
+public class HistoryStore {
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxSegments;
+    private final Map<String, RoomLog> logs = new ConcurrentHashMap<>();
+
+    public HistoryStore(Path directory, int segmentSize, int maxSegments, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.fsyncPolicy = fsyncPolicy;
+        if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "history-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::forceAll, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public RoomLog open(String roomName) throws IOException {
+        RoomLog log = logs.get(roomName);
+        if (log == null) {
+            log = RoomLog.open(logDirectory(roomName), segmentSize, fsyncPolicy, maxSegments);
+            RoomLog existing = logs.putIfAbsent(roomName, log);
+            if (existing != null) {
+                log.close();
+                log = existing;
+            }
+        }
+        return log;
+    }
+
+    // Called when a room is closed; the log is opened again if a room of that name comes back
+    public void close(String roomName) {
+        RoomLog log = logs.remove(roomName);
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.out.println("Error closing history of '" + roomName + "': " + e.getMessage());
+            }
+        }
+    }
+
+    // Called when a room is closed for good; a later room of the same name starts with no history
+    public void delete(String roomName) {
+        close(roomName);
+        Path logDirectory = logDirectory(roomName);
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+            Files.delete(logDirectory);
+        } catch (NoSuchFileException e) {
+            // Never written to
+        } catch (IOException e) {
+            System.out.println("Error deleting history of '" + roomName + "': " + e.getMessage());
+        }
+    }
+
+    private Path logDirectory(String roomName) {
+        return directory.resolve(roomName.replaceAll("[^A-Za-z0-9_.-]", "_"));
+    }
+
+    private void forceAll() {
+        for (RoomLog log : logs.values()) {
+            log.force();
+        }
+    }
+}
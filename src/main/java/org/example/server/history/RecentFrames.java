@@ -0,0 +1,102 @@
+package org.example.server.history;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Frame;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+
+// Fixed-size ring of the most recent broadcast frames of a room, stored under the room's sequence
+// numbers (from 1). Writers never wait for each other; a slot is marked unpublished while it is
+// overwritten, so readers can tell a consistent slot from one in flux and skip the latter.
+public class RecentFrames {
+    private static final MessageCodec SIZE_CODEC = new BinaryCodec();
+    private static final long UNPUBLISHED = -1;
+
+    private final int mask;
+    private final int maxBytes;
+    private final AtomicReferenceArray<Frame> frames;
+    private final AtomicLongArray sequences;
+    // Highest sequence appended so far
+    private final AtomicLong newest = new AtomicLong();
+
+    // Keeps at least capacity frames, rounded up to a power of two
+    public RecentFrames(int capacity, int maxBytes) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.maxBytes = maxBytes;
+        this.frames = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, UNPUBLISHED);
+        }
+    }
+
+    // Concurrent senders may append their sequences slightly out of order
+    public void append(long sequence, Frame frame) {
+        int slot = (int) (sequence & mask);
+        sequences.set(slot, UNPUBLISHED);
+        frames.set(slot, frame);
+        sequences.set(slot, sequence);
+        newest.accumulateAndGet(sequence, Math::max);
+    }
+
+    public long getNewest() {
+        return newest.get();
+    }
+
+    // Sends the frames after one sequence up to another, oldest first; false if some of them are gone
+    public boolean replayRange(long after, long upTo, MessageChannel target) throws IOException {
+        if (upTo - after > mask + 1) {
+            return false;
+        }
+        for (long sequence = after + 1; sequence <= upTo; sequence++) {
+            Frame frame = read(sequence);
+            if (frame == null) {
+                return false;
+            }
+            target.send(frame);
+        }
+        return true;
+    }
+
+    // Sends up to count of the newest frames, oldest first, but no more than maxBytes of them. A first
+    // pass walks back from the newest to find the oldest frame that fits, a second sends forward from
+    // there, so a join allocates nothing. A frame overwritten in between is skipped.
+    public void replayLast(int count, MessageChannel target) throws IOException {
+        long last = newest.get();
+        int limit = Math.min(count, mask + 1);
+        long first = last + 1;
+        long bytes = 0;
+        for (long sequence = last; sequence > 0 && last - sequence < limit; sequence--) {
+            Frame frame = read(sequence);
+            if (frame == null) {
+                continue;
+            }
+            bytes += frame.length(SIZE_CODEC);
+            if (bytes > maxBytes) {
+                break;
+            }
+            first = sequence;
+        }
+        for (long sequence = first; sequence <= last; sequence++) {
+            Frame frame = read(sequence);
+            if (frame != null) {
+                target.send(frame);
+            }
+        }
+    }
+
+    // The frame stored under the sequence, or null if it was overwritten or is still being written
+    private Frame read(long sequence) {
+        int slot = (int) (sequence & mask);
+        if (sequences.get(slot) != sequence) {
+            return null;
+        }
+        Frame frame = frames.get(slot);
+        return sequences.get(slot) == sequence ? frame : null;
+    }
+}
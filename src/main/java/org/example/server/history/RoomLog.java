@@ -0,0 +1,288 @@
+package org.example.server.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Frame;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageFrames;
+
+// Append-only history of one room, kept in fixed-size memory-mapped segment files named after the
+// offset of their first message. Each record is a 4-byte body length, 8 bytes of epoch millis and
+// the message in the binary codec. The length is written last, so a zero length marks the end.
+// Every INDEX_INTERVAL-th record is remembered in a sparse in-memory index, rebuilt on open.
+// Once a new segment takes the log over maxSegments, the oldest is deleted; a reader still walking
+// it keeps its mapping until the buffer is collected.
+public class RoomLog implements Closeable {
+    private static final MessageCodec CODEC = new BinaryCodec();
+    private static final int RECORD_HEADER = 12;
+    private static final int INDEX_INTERVAL = 64;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    // 0 keeps every segment
+    private final int maxSegments;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    // The segment appended to, also while the oldest is being removed from the list
+    private volatile Segment current;
+    private final Lock appendLock = new ReentrantLock();
+
+    private RoomLog(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxSegments = maxSegments;
+    }
+
+    public static RoomLog open(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int maxSegments) throws IOException {
+        Files.createDirectories(directory);
+        RoomLog log = new RoomLog(directory, segmentSize, fsyncPolicy, maxSegments);
+        List<Long> baseOffsets = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> baseOffsets.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        baseOffsets.sort(null);
+        for (long baseOffset : baseOffsets) {
+            Segment segment = log.mapSegment(baseOffset);
+            segment.recover();
+            log.segments.add(segment);
+        }
+        if (log.segments.isEmpty()) {
+            log.segments.add(log.mapSegment(0));
+        }
+        log.current = log.segments.get(log.segments.size() - 1);
+        log.removeOldSegments();
+        return log;
+    }
+
+    // Offset the next appended message will get, i.e. the number of messages ever appended
+    public long getNextOffset() {
+        return current.nextOffset;
+    }
+
+    public void append(Frame frame) throws IOException {
+        ByteBuffer encoded = frame.buffer(CODEC);
+        int bodyLength = encoded.remaining() - MessageFrames.HEADER_LENGTH;
+        int recordLength = RECORD_HEADER + bodyLength;
+        if (recordLength > segmentSize) {
+            throw new IOException("Message too large for history segment");
+        }
+        long timestamp = frame.getMessage().getTimestamp() != null
+                ? frame.getMessage().getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : System.currentTimeMillis();
+        appendLock.lock();
+        try {
+            Segment segment = current;
+            if (segment.writePosition + recordLength > segmentSize) {
+                segment = mapSegment(segment.nextOffset);
+                segments.add(segment);
+                current = segment;
+                removeOldSegments();
+            }
+            segment.append(encoded, bodyLength, timestamp);
+            if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+                segment.buffer.force();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Sends the last count messages, oldest first
+    public void replayLast(int count, MessageChannel target) throws IOException {
+        replayFrom(Math.max(0, getNextOffset() - count), target);
+    }
+
+    // Sends the messages with a timestamp at or after the given epoch millis, oldest first, but no more
+    // than the last count of them
+    public void replaySince(long epochMillis, int count, MessageChannel target) throws IOException {
+        long fromOffset = Math.max(0, getNextOffset() - count);
+        boolean started = false;
+        // Iterates over a snapshot, so segments removed meanwhile are still read to the end
+        for (Segment segment : segments) {
+            if (started) {
+                segment.replay(0, Long.MIN_VALUE, Long.MIN_VALUE, target);
+            } else if (segment.lastTimestamp >= epochMillis && fromOffset < segment.nextOffset) {
+                // Both are at or before the first record to send, so the later one is the closer start
+                int position = Math.max(segment.positionBeforeTime(epochMillis), segment.positionBeforeOffset(fromOffset));
+                segment.replay(position, fromOffset, epochMillis, target);
+                started = true;
+            }
+        }
+    }
+
+    private void replayFrom(long offset, MessageChannel target) throws IOException {
+        boolean started = false;
+        for (Segment segment : segments) {
+            if (started) {
+                segment.replay(0, Long.MIN_VALUE, Long.MIN_VALUE, target);
+            } else if (offset < segment.nextOffset) {
+                segment.replay(segment.positionBeforeOffset(offset), offset, Long.MIN_VALUE, target);
+                started = true;
+            }
+        }
+    }
+
+    public void force() {
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    // Under the append lock, or while opening. Closing the channel leaves the mapping to readers
+    // still in the segment; it goes with the buffer once nothing refers to it.
+    private void removeOldSegments() {
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            try {
+                oldest.channel.close();
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                System.out.println("Error deleting history segment " + oldest.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Segment mapSegment(long baseOffset) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", baseOffset, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(baseOffset, path, channel, buffer);
+    }
+
+    private class Segment {
+        private final long baseOffset;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Sparse index entries: {offset, position, timestamp}
+        private final List<long[]> index = new CopyOnWriteArrayList<>();
+        // Written only under the append lock; readers stay below the published position
+        private volatile int writePosition;
+        private volatile long nextOffset;
+        private volatile long lastTimestamp = Long.MIN_VALUE;
+        private volatile boolean dirty;
+
+        Segment(long baseOffset, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.nextOffset = baseOffset;
+        }
+
+        void append(ByteBuffer encoded, int bodyLength, long timestamp) {
+            int position = writePosition;
+            buffer.putLong(position + 4, timestamp);
+            buffer.put(position + RECORD_HEADER, encoded, encoded.position() + MessageFrames.HEADER_LENGTH, bodyLength);
+            buffer.putInt(position, bodyLength);
+            published(position, RECORD_HEADER + bodyLength, timestamp);
+        }
+
+        private void published(int position, int recordLength, long timestamp) {
+            if ((nextOffset - baseOffset) % INDEX_INTERVAL == 0) {
+                index.add(new long[]{nextOffset, position, timestamp});
+            }
+            lastTimestamp = timestamp;
+            dirty = true;
+            writePosition = position + recordLength;
+            nextOffset++;
+        }
+
+        // Finds the end of the records written before a restart and rebuilds the index
+        void recover() {
+            int position = 0;
+            while (position + RECORD_HEADER <= segmentSize) {
+                int bodyLength = buffer.getInt(position);
+                if (bodyLength <= 0 || position + RECORD_HEADER + bodyLength > segmentSize) {
+                    break;
+                }
+                published(position, RECORD_HEADER + bodyLength, buffer.getLong(position + 4));
+                position = writePosition;
+            }
+            dirty = false;
+        }
+
+        // Position of the last indexed record at or before the offset
+        int positionBeforeOffset(long offset) {
+            int position = 0;
+            for (long[] entry : index) {
+                if (entry[0] > offset) {
+                    break;
+                }
+                position = (int) entry[1];
+            }
+            return position;
+        }
+
+        // Position of the last indexed record older than the timestamp
+        int positionBeforeTime(long epochMillis) {
+            int position = 0;
+            for (long[] entry : index) {
+                if (entry[2] >= epochMillis) {
+                    break;
+                }
+                position = (int) entry[1];
+            }
+            return position;
+        }
+
+        // Streams records from the position on, skipping those below fromOffset or older than sinceMillis
+        void replay(int position, long fromOffset, long sinceMillis, MessageChannel target) throws IOException {
+            int end = writePosition;
+            long offset = offsetAt(position);
+            while (position < end) {
+                int bodyLength = buffer.getInt(position);
+                long timestamp = buffer.getLong(position + 4);
+                if (offset >= fromOffset && timestamp >= sinceMillis) {
+                    byte[] bytes = new byte[MessageFrames.HEADER_LENGTH + bodyLength];
+                    ByteBuffer.wrap(bytes).putInt(bodyLength);
+                    buffer.get(position + RECORD_HEADER, bytes, MessageFrames.HEADER_LENGTH, bodyLength);
+                    target.send(Frame.ofEncoded(CODEC, bytes));
+                }
+                position += RECORD_HEADER + bodyLength;
+                offset++;
+            }
+        }
+
+        private long offsetAt(int position) {
+            long offset = baseOffset;
+            for (long[] entry : index) {
+                if (entry[1] > position) {
+                    break;
+                }
+                offset = entry[0];
+            }
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package org.example.server.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+
+// In-memory inverted index of a room's messages, searched by terms, sender and time. Broadcasts
+// only queue their message; one background thread shared by all rooms indexes it.
+//
+// The index is a list of segments, oldest first. New messages go into the last, open segment,
+// which is sealed once it holds SEGMENT_SIZE messages. The two newest sealed segments are merged
+// while they are the same size, so a room has a logarithmic number of them, and the oldest are
+// dropped once the room holds more than its limit. A segment keeps, for every term and sender, the
+// sorted numbers of the messages containing it, and the messages themselves only as their encoded
+// bytes packed into one array.
+public class SearchIndex {
+    private static final MessageCodec CODEC = new BinaryCodec();
+    private static final int SEGMENT_SIZE = 4096;
+    // Messages waiting for the indexer; beyond this the index skips messages rather than grow
+    private static final int MAX_PENDING = 64 * 1024;
+    // Senders share the term dictionary under a prefix no term can start with
+    private static final String SENDER_PREFIX = "@";
+    private static final ExecutorService INDEXER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maxMessages;
+    private final int maxSegmentSize;
+    private final Queue<Frame> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // Changed only by the indexer thread, under the write lock; sealed segments never change
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private int size;
+    private final LongAdder skipped = new LongAdder();
+
+    public SearchIndex(int maxMessages) {
+        this.maxMessages = maxMessages;
+        // Dropping the oldest segment never takes more than about a quarter of the messages
+        this.maxSegmentSize = Math.max(SEGMENT_SIZE, maxMessages / 4);
+        segments.add(new Segment());
+    }
+
+    // Called on the broadcast path and never waits
+    public void add(Frame frame) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            pendingCount.decrementAndGet();
+            skipped.increment();
+            return;
+        }
+        pending.add(frame);
+        if (draining.compareAndSet(false, true)) {
+            INDEXER.execute(this::drain);
+        }
+    }
+
+    // Indexes the newest messages of the room's history, ahead of anything added later
+    public void load(RoomLog log) {
+        INDEXER.execute(() -> {
+            try {
+                log.replayLast(maxMessages, new MessageChannel() {
+                    @Override
+                    public void send(Frame frame) {
+                        index(frame);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("Error indexing history: " + e.getMessage());
+            }
+        });
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Messages left out because the indexer fell too far behind
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    // Adds up to limit of the newest matches to the list, newest first, and returns how many there are
+    public int search(Query query, int limit, List<Frame> matches) throws IOException {
+        List<String> keys = new ArrayList<>(query.terms);
+        if (query.sender != null) {
+            keys.add(SENDER_PREFIX + query.sender);
+        }
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        int total = 0;
+        lock.readLock().lock();
+        try {
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                total += segments.get(i).search(keys, query, limit, matches);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return total;
+    }
+
+    private void drain() {
+        do {
+            Frame frame;
+            while ((frame = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                index(frame);
+            }
+            draining.set(false);
+            // A message added after the last poll but before the flag was cleared would otherwise wait
+        } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    // Runs on the indexer thread only
+    private void index(Frame frame) {
+        Message message = frame.getMessage();
+        if (message.getData() == null) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            ByteBuffer encoded = frame.buffer(CODEC);
+            bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+        } catch (IOException e) {
+            return;
+        }
+        Set<String> keys = new LinkedHashSet<>(terms(message.getData()));
+        if (message.getSender() != null) {
+            keys.add(SENDER_PREFIX + message.getSender().toLowerCase(Locale.ROOT));
+        }
+        boolean sealed = false;
+        lock.writeLock().lock();
+        try {
+            Segment open = segments.get(segments.size() - 1);
+            if (open.count == SEGMENT_SIZE) {
+                open.seal();
+                open = new Segment();
+                segments.add(open);
+                sealed = true;
+            }
+            open.add(bytes, epochMillis(message.getTimestamp()), keys);
+            size++;
+            while (size > maxMessages && segments.size() > 1) {
+                size -= segments.remove(0).count;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (sealed) {
+            mergeSealed();
+        }
+    }
+
+    // Merges the two newest sealed segments while they are the same size. Sealed segments never change,
+    // so the merge is built without the lock and only swapped in under it.
+    private void mergeSealed() {
+        while (segments.size() >= 3) {
+            int last = segments.size() - 2;
+            Segment older = segments.get(last - 1);
+            Segment newer = segments.get(last);
+            if (older.count != newer.count || older.count + newer.count > maxSegmentSize) {
+                return;
+            }
+            Segment merged = Segment.merge(older, newer);
+            lock.writeLock().lock();
+            try {
+                segments.set(last - 1, merged);
+                segments.remove(last);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static long epochMillis(LocalDateTime timestamp) {
+        return timestamp != null ? timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : System.currentTimeMillis();
+    }
+
+    // Words all of which a message has to contain, and optionally its sender and a time range.
+    // Parsed from e.g. "deploy friday from:alice since:2024-10-01T18:30 until:2024-10-02T09:00".
+    public static class Query {
+        private final List<String> terms = new ArrayList<>();
+        private String sender;
+        private long sinceMillis = Long.MIN_VALUE;
+        private long untilMillis = Long.MAX_VALUE;
+
+        // Throws DateTimeParseException for a malformed time
+        public static Query parse(String text) {
+            Query query = new Query();
+            for (String word : text.trim().split("\\s+")) {
+                if (word.startsWith("from:")) {
+                    query.sender = word.substring(5).toLowerCase(Locale.ROOT);
+                } else if (word.startsWith("since:")) {
+                    query.sinceMillis = epochMillis(LocalDateTime.parse(word.substring(6)));
+                } else if (word.startsWith("until:")) {
+                    query.untilMillis = epochMillis(LocalDateTime.parse(word.substring(6)));
+                } else {
+                    query.terms.addAll(terms(word));
+                }
+            }
+            return query;
+        }
+
+        // A query needs words or a sender; a time range alone would match everything in it
+        public boolean isEmpty() {
+            return terms.isEmpty() && (sender == null || sender.isEmpty());
+        }
+    }
+
+    private static class Segment {
+        private int count;
+        private long[] timestamps = new long[64];
+        // Message i is data[offsets[i]] up to data[offsets[i + 1]]
+        private int[] offsets = new int[65];
+        private byte[] data = new byte[4096];
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private final Map<String, Postings> postings = new HashMap<>();
+
+        void add(byte[] bytes, long timestamp, Set<String> keys) {
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            int start = offsets[count];
+            if (start + bytes.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, start + bytes.length));
+            }
+            System.arraycopy(bytes, 0, data, start, bytes.length);
+            offsets[count + 1] = start + bytes.length;
+            timestamps[count] = timestamp;
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            for (String key : keys) {
+                postings.computeIfAbsent(key, k -> new Postings()).add(count);
+            }
+            count++;
+        }
+
+        // Trims the arrays once no more messages are coming
+        void seal() {
+            timestamps = Arrays.copyOf(timestamps, count);
+            offsets = Arrays.copyOf(offsets, count + 1);
+            data = Arrays.copyOf(data, offsets[count]);
+            for (Postings list : postings.values()) {
+                list.trim();
+            }
+        }
+
+        static Segment merge(Segment older, Segment newer) {
+            Segment merged = new Segment();
+            int count = older.count + newer.count;
+            merged.count = count;
+            merged.timestamps = new long[count];
+            System.arraycopy(older.timestamps, 0, merged.timestamps, 0, older.count);
+            System.arraycopy(newer.timestamps, 0, merged.timestamps, older.count, newer.count);
+            int olderBytes = older.offsets[older.count];
+            merged.data = new byte[olderBytes + newer.offsets[newer.count]];
+            System.arraycopy(older.data, 0, merged.data, 0, olderBytes);
+            System.arraycopy(newer.data, 0, merged.data, olderBytes, newer.offsets[newer.count]);
+            merged.offsets = new int[count + 1];
+            System.arraycopy(older.offsets, 0, merged.offsets, 0, older.count + 1);
+            for (int i = 1; i <= newer.count; i++) {
+                merged.offsets[older.count + i] = olderBytes + newer.offsets[i];
+            }
+            merged.minTimestamp = Math.min(older.minTimestamp, newer.minTimestamp);
+            merged.maxTimestamp = Math.max(older.maxTimestamp, newer.maxTimestamp);
+            merged.postings.putAll(older.postings);
+            for (Map.Entry<String, Postings> entry : newer.postings.entrySet()) {
+                merged.postings.merge(entry.getKey(), entry.getValue().shifted(older.count), Postings::concat);
+            }
+            return merged;
+        }
+
+        // Walks the shortest list from the newest message down and looks each one up in the others.
+        // Lookups only ever move down too, so each search is bounded by the previous hit.
+        int search(List<String> keys, Query query, int limit, List<Frame> matches) throws IOException {
+            if (count == 0 || maxTimestamp < query.sinceMillis || minTimestamp > query.untilMillis) {
+                return 0;
+            }
+            Postings[] lists = new Postings[keys.size()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings.get(keys.get(i));
+                if (lists[i] == null) {
+                    return 0;
+                }
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            int[] bounds = new int[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                bounds[i] = lists[i].size;
+            }
+            int found = 0;
+            Postings shortest = lists[0];
+            candidates:
+            for (int i = shortest.size - 1; i >= 0; i--) {
+                int message = shortest.messages[i];
+                for (int j = 1; j < lists.length; j++) {
+                    int at = Arrays.binarySearch(lists[j].messages, 0, bounds[j], message);
+                    bounds[j] = at >= 0 ? at : -at - 1;
+                    if (at < 0) {
+                        continue candidates;
+                    }
+                }
+                if (timestamps[message] < query.sinceMillis || timestamps[message] > query.untilMillis) {
+                    continue;
+                }
+                found++;
+                if (matches.size() < limit) {
+                    matches.add(Frame.ofEncoded(CODEC, Arrays.copyOfRange(data, offsets[message], offsets[message + 1])));
+                }
+            }
+            return found;
+        }
+    }
+
+    // Ascending numbers of the messages of a segment that contain a term
+    private static class Postings {
+        private int[] messages = new int[4];
+        private int size;
+
+        Postings() {
+        }
+
+        private Postings(int[] messages) {
+            this.messages = messages;
+            this.size = messages.length;
+        }
+
+        void add(int message) {
+            if (size == messages.length) {
+                messages = Arrays.copyOf(messages, size * 2);
+            }
+            messages[size++] = message;
+        }
+
+        void trim() {
+            messages = Arrays.copyOf(messages, size);
+        }
+
+        Postings shifted(int by) {
+            int[] shifted = new int[size];
+            for (int i = 0; i < size; i++) {
+                shifted[i] = messages[i] + by;
+            }
+            return new Postings(shifted);
+        }
+
+        static Postings concat(Postings first, Postings second) {
+            int[] joined = Arrays.copyOf(first.messages, first.size + second.size);
+            System.arraycopy(second.messages, 0, joined, first.size, second.size);
+            return new Postings(joined);
+        }
+    }
+}
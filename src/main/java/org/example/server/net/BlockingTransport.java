@@ -0,0 +1,69 @@
+package org.example.server.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+
+// One accept task per listening port and one task per connected client, each occupying a thread
+// of the executor for as long as it runs. Outbound frames are written by short-lived tasks on the
+// same executor. Sockets are accepted through a channel so those writes can be gathering writes.
+public class BlockingTransport implements Transport {
+    private final Executor executor;
+    private final List<MessageCodec> codecs;
+    private final Supplier<OutboundQueue> outboundQueues;
+    private final WriteBatching batching;
+
+    public BlockingTransport(Executor executor, List<MessageCodec> codecs, Supplier<OutboundQueue> outboundQueues,
+                             WriteBatching batching) {
+        this.executor = executor;
+        this.codecs = codecs;
+        this.outboundQueues = outboundQueues;
+        this.batching = batching;
+    }
+
+    @Override
+    public Closeable listen(int port, Function<MessageChannel, SessionHandler> handlers) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        executor.execute(() -> acceptLoop(serverChannel, handlers));
+        return serverChannel;
+    }
+
+    // Running connections end as their sockets are closed
+    @Override
+    public void shutdown() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdown();
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel serverChannel, Function<MessageChannel, SessionHandler> handlers) {
+        int port = serverChannel.socket().getLocalPort();
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                executor.execute(new ConnectionWorker(channel.socket(), codecs, handlers, outboundQueues, executor, batching));
+            }
+        } catch (IOException e) {
+            if (serverChannel.isOpen()) {
+                System.out.println("Error accepting on port " + port + ": " + e.getMessage());
+            }
+        } finally {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+    }
+}
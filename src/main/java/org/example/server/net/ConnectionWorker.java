@@ -0,0 +1,71 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.example.chat.Connection;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageCodecs;
+
+public class ConnectionWorker implements Runnable {
+    private final Socket socket;
+    private final List<MessageCodec> codecs;
+    private final Function<MessageChannel, SessionHandler> handlers;
+    private final Supplier<OutboundQueue> outboundQueues;
+    private final Executor writers;
+    private final WriteBatching batching;
+
+    public ConnectionWorker(Socket socket, List<MessageCodec> codecs, Function<MessageChannel, SessionHandler> handlers,
+                            Supplier<OutboundQueue> outboundQueues, Executor writers, WriteBatching batching) {
+        this.socket = socket;
+        this.codecs = codecs;
+        this.handlers = handlers;
+        this.outboundQueues = outboundQueues;
+        this.writers = writers;
+        this.batching = batching;
+    }
+
+    public void run() {
+        Connection connection;
+        try {
+            // The session has not opened yet, so the idle monitor does not watch a client that never sends its offer
+            socket.setSoTimeout(MessageCodecs.HELLO_TIMEOUT_MILLIS);
+            connection = Connection.accept(socket, codecs);
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            System.out.println("Error negotiating with client: " + e.getMessage());
+            closeSocket();
+            return;
+        }
+        QueuedChannel channel = new QueuedChannel(connection, outboundQueues.get(), writers, batching);
+        SessionHandler handler = handlers.apply(channel);
+        try {
+            handler.onOpen();
+            while (true) {
+                Message message = connection.receive();
+                if (message == null) {
+                    break;
+                }
+                handler.onMessage(message);
+            }
+        } catch (IOException e) {
+            System.out.println("Error handling client: " + e.getMessage());
+        } finally {
+            handler.onClose();
+            channel.close();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("An error occurred while closing the connection.");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageType;
+
+// Finds dead peers. Every connection has one timeout on the server's timing wheel: once nothing has
+// been received for the ping interval it is sent a PING, and once nothing has been received for the
+// idle timeout it is aborted, which ends its session like any other disconnect. Any message counts
+// as a sign of life, so busy connections are never pinged.
+public class IdleMonitor {
+    private final TimingWheel wheel;
+    private final long pingNanos;
+    private final long idleNanos;
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // A ping interval of 0 only closes idle connections; an idle timeout of 0 turns monitoring off
+    public IdleMonitor(TimingWheel wheel, long pingMillis, long idleMillis) {
+        this.wheel = wheel;
+        this.pingNanos = TimeUnit.MILLISECONDS.toNanos(pingMillis);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    }
+
+    public Function<MessageChannel, SessionHandler> track(Function<MessageChannel, SessionHandler> handlers) {
+        if (idleNanos <= 0) {
+            return handlers;
+        }
+        return connection -> new MonitoredHandler(connection, handlers.apply(connection));
+    }
+
+    public long getPings() {
+        return pings.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private class MonitoredHandler implements SessionHandler {
+        private final MessageChannel connection;
+        private final SessionHandler handler;
+        private volatile long lastReceived = System.nanoTime();
+        private volatile boolean pinged;
+        private volatile boolean closed;
+        private volatile TimingWheel.Timeout timeout;
+
+        MonitoredHandler(MessageChannel connection, SessionHandler handler) {
+            this.connection = connection;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onOpen() throws IOException {
+            schedule(System.nanoTime());
+            handler.onOpen();
+        }
+
+        @Override
+        public void onMessage(Message message) throws IOException {
+            lastReceived = System.nanoTime();
+            pinged = false;
+            if (message.getType() == MessageType.PONG) {
+                return;
+            }
+            if (message.getType() == MessageType.PING) {
+                connection.send(new Message(MessageType.PONG));
+                return;
+            }
+            handler.onMessage(message);
+        }
+
+        @Override
+        public void onClose() {
+            closed = true;
+            // Null if the session closed before it opened
+            TimingWheel.Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+            handler.onClose();
+        }
+
+        // Runs on the wheel's thread
+        private void check() {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            long idle = now - lastReceived;
+            if (idle >= idleNanos) {
+                evictions.increment();
+                connection.abort();
+                return;
+            }
+            if (pingNanos > 0 && idle >= pingNanos && !pinged) {
+                pinged = true;
+                pings.increment();
+                try {
+                    connection.send(new Message(MessageType.PING));
+                } catch (IOException e) {
+                    connection.abort();
+                    return;
+                }
+            }
+            schedule(now);
+        }
+
+        // Next look when a ping or the idle timeout would be due
+        private void schedule(long now) {
+            long received = lastReceived;
+            long due = received + idleNanos;
+            if (pingNanos > 0 && !pinged && received + pingNanos > now) {
+                due = received + pingNanos;
+            }
+            timeout = wheel.schedule(this::check, Math.max(0, due - now), TimeUnit.NANOSECONDS);
+        }
+    }
+}
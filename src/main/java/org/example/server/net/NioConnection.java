@@ -0,0 +1,399 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.example.chat.FileTransfer;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageCodecs;
+import org.example.chat.MessageFrames;
+
+// Non-blocking counterpart of Connection. send() may be called from any thread; reads, writes and
+// handler callbacks all run on the owning event loop.
+public class NioConnection implements MessageChannel, NioEventLoop.SelectionHandler {
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final List<MessageCodec> supportedCodecs;
+    private final SessionHandler handler;
+    private final OutboundQueue writeQueue;
+    private final WriteBatching batching;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closing;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private SelectionKey key;
+    // The batch being written; only touched on the event loop
+    private final List<Frame> batch = new ArrayList<>();
+    private ByteBuffer[] pendingWrites = new ByteBuffer[0];
+    private int pendingOffset;
+    private int pendingCount;
+    private long pendingQueuedAt = -1;
+    // Files waiting to be sent, written a chunk at a time whenever no frames are queued
+    private final Queue<FileTransfer> transfers = new ConcurrentLinkedQueue<>();
+    // What is left of the header of the chunk being written, null between chunks; only touched on the event loop
+    private ByteBuffer chunkHeader;
+    // Null until the client's codec offer has been read
+    private volatile MessageCodec codec;
+    // Only changed on the event loop
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, List<MessageCodec> supportedCodecs,
+                  OutboundQueue writeQueue, WriteBatching batching, Function<MessageChannel, SessionHandler> handlers) {
+        this.channel = channel;
+        this.loop = loop;
+        this.supportedCodecs = supportedCodecs;
+        this.writeQueue = writeQueue;
+        this.batching = batching;
+        this.handler = handlers.apply(this);
+    }
+
+    void register() {
+        try {
+            key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+            loop.schedule(this::checkNegotiated, TimeUnit.MILLISECONDS.toNanos(MessageCodecs.HELLO_TIMEOUT_MILLIS));
+        } catch (IOException e) {
+            System.out.println("Error handling client: " + e.getMessage());
+            closeNow();
+        }
+    }
+
+    // Sessions only open once the client's codec offer has arrived, so until then the idle monitor does not see the connection
+    private void checkNegotiated() {
+        if (codec == null && !closed.get()) {
+            System.out.println("Closing client that sent no codec offer");
+            closeNow();
+        }
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void send(Frame frame) throws IOException {
+        if (closing) {
+            throw new ClosedChannelException();
+        }
+        // Encode on the sending thread, not while holding the queue
+        frame.length(codec);
+        if (!writeQueue.offer(frame)) {
+            System.out.println("Disconnecting slow client: outbound queue is full");
+            abort();
+            return;
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void sendFile(FileTransfer transfer) throws IOException {
+        if (closing || transfers.size() >= FileTransfer.MAX_QUEUED) {
+            transfer.close();
+            throw new IOException(closing ? "Connection is closed" : "Too many file transfers at once");
+        }
+        transfers.add(transfer);
+        if (closed.get()) {
+            // Raced with closeNow, which may have missed it
+            closeTransfers();
+            return;
+        }
+        scheduleFlush();
+    }
+
+    // Only the first transfer is being sent
+    @Override
+    public void acknowledgeFile(String description, long received) {
+        FileTransfer transfer = transfers.peek();
+        if (transfer != null && transfer.getDescription().equals(description)) {
+            transfer.acknowledge(received);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    // Pending frames are still written before the socket is closed.
+    @Override
+    public void close() {
+        closing = true;
+        scheduleFlush();
+    }
+
+    @Override
+    public void abort() {
+        closing = true;
+        if (loop.inEventLoop()) {
+            closeNow();
+        } else {
+            loop.execute(this::closeNow);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (batching.getWindowNanos() == 0 && loop.inEventLoop()) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            Runnable task = () -> {
+                flushScheduled.set(false);
+                flush();
+            };
+            if (batching.getWindowNanos() > 0) {
+                // Frames sent until the window closes are written together
+                loop.schedule(task, batching.getWindowNanos());
+            } else {
+                loop.execute(task);
+            }
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onLoopClosed() {
+        closeNow();
+    }
+
+    private void read() {
+        try {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                closeNow();
+                return;
+            }
+            bytesIn += count;
+            readBuffer.flip();
+            if (codec == null && !negotiate()) {
+                readBuffer.compact();
+                return;
+            }
+            while (readBuffer.remaining() >= MessageFrames.HEADER_LENGTH && !closed.get()) {
+                int header = readBuffer.getInt(readBuffer.position());
+                int length = MessageFrames.frameLength(header);
+                if (readBuffer.remaining() < MessageFrames.HEADER_LENGTH + length) {
+                    ensureCapacity(MessageFrames.HEADER_LENGTH + length);
+                    break;
+                }
+                int start = readBuffer.position() + MessageFrames.HEADER_LENGTH;
+                Message message = MessageFrames.decode(codec, header, readBuffer.array(), readBuffer.arrayOffset() + start, length);
+                readBuffer.position(start + length);
+                handler.onMessage(message);
+            }
+            readBuffer.compact();
+        } catch (IOException e) {
+            System.out.println("Error handling client: " + e.getMessage());
+            closeNow();
+        }
+    }
+
+    // Answers the client's codec offer once it has fully arrived, then opens the session
+    private boolean negotiate() throws IOException {
+        if (readBuffer.remaining() < MessageCodecs.HELLO_HEADER_LENGTH) {
+            return false;
+        }
+        int start = readBuffer.position();
+        int count = MessageCodecs.readHelloHeader(readBuffer.get(start), readBuffer.get(start + 1), readBuffer.get(start + 2));
+        if (readBuffer.remaining() < MessageCodecs.HELLO_HEADER_LENGTH + count) {
+            return false;
+        }
+        MessageCodec chosen = MessageCodecs.choose(supportedCodecs, readBuffer.array(),
+                readBuffer.arrayOffset() + start + MessageCodecs.HELLO_HEADER_LENGTH, count);
+        readBuffer.position(start + MessageCodecs.HELLO_HEADER_LENGTH + count);
+        pendingWrites = new ByteBuffer[]{ByteBuffer.wrap(new byte[]{chosen != null ? chosen.getId() : MessageCodecs.NONE})};
+        pendingOffset = 0;
+        pendingCount = 1;
+        if (chosen == null) {
+            close();
+            return false;
+        }
+        codec = chosen;
+        handler.onOpen();
+        flush();
+        return true;
+    }
+
+    private void ensureCapacity(int frameLength) {
+        if (readBuffer.capacity() < frameLength) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frameLength, readBuffer.capacity() * 2));
+            larger.put(readBuffer);
+            larger.flip();
+            readBuffer = larger;
+        }
+    }
+
+    private void flush() {
+        if (closed.get() || key == null) {
+            return;
+        }
+        try {
+            // A batch or chunk already started is finished first; between them frames go before file chunks
+            while (true) {
+                boolean done;
+                if (pendingOffset < pendingCount) {
+                    done = writePending();
+                } else if (chunkHeader != null) {
+                    done = writeChunk();
+                } else if (nextBatch()) {
+                    continue;
+                } else if (nextChunk()) {
+                    continue;
+                } else {
+                    break;
+                }
+                if (!done) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closing) {
+                closeNow();
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    private boolean writePending() throws IOException {
+        // One gathering write for the whole batch
+        bytesOut += channel.write(pendingWrites, pendingOffset, pendingCount - pendingOffset);
+        while (pendingOffset < pendingCount && !pendingWrites[pendingOffset].hasRemaining()) {
+            pendingWrites[pendingOffset++] = null;
+        }
+        if (pendingOffset < pendingCount) {
+            return false;
+        }
+        if (pendingQueuedAt >= 0) {
+            writeQueue.recordFlush(pendingCount, pendingQueuedAt);
+            pendingQueuedAt = -1;
+        }
+        return true;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (closing) {
+            // Files not started yet are dropped on close, unlike frames
+            closeTransfers();
+            return false;
+        }
+        FileTransfer transfer = nextTransfer();
+        if (codec == null || transfer == null) {
+            return false;
+        }
+        chunkHeader = transfer.startChunk(codec);
+        return true;
+    }
+
+    // The header of the current chunk, then its bytes straight from the file into the socket
+    private boolean writeChunk() throws IOException {
+        if (chunkHeader.hasRemaining()) {
+            bytesOut += channel.write(chunkHeader);
+            if (chunkHeader.hasRemaining()) {
+                return false;
+            }
+        }
+        FileTransfer transfer = transfers.peek();
+        long start = transfer.getPosition();
+        boolean done = transfer.writeChunk(channel);
+        bytesOut += transfer.getPosition() - start;
+        if (!done) {
+            return false;
+        }
+        chunkHeader = null;
+        if (!transfer.hasMore()) {
+            transfers.poll();
+            transfer.close();
+        }
+        return true;
+    }
+
+    // The transfer to send a chunk of next, null if there is none or it waits for the receiver
+    private FileTransfer nextTransfer() {
+        FileTransfer transfer;
+        while ((transfer = transfers.peek()) != null && transfer.isCancelled()) {
+            if (transfers.remove(transfer)) {
+                transfer.close();
+            }
+        }
+        return transfer != null && transfer.canSend() ? transfer : null;
+    }
+
+    private void closeTransfers() {
+        FileTransfer transfer;
+        while ((transfer = transfers.poll()) != null) {
+            transfer.close();
+        }
+    }
+
+    private boolean nextBatch() throws IOException {
+        if (codec == null) {
+            return false;
+        }
+        long queuedAt = writeQueue.pollBatch(batch, batching.getMaxBytes(), codec);
+        if (queuedAt < 0) {
+            return false;
+        }
+        if (pendingWrites.length < batch.size()) {
+            pendingWrites = new ByteBuffer[batch.size()];
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            pendingWrites[i] = batch.get(i).buffer(codec);
+        }
+        pendingOffset = 0;
+        pendingCount = batch.size();
+        pendingQueuedAt = queuedAt;
+        batch.clear();
+        return true;
+    }
+
+    private void closeNow() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closing = true;
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("An error occurred while closing the connection.");
+        }
+        writeQueue.clear();
+        closeTransfers();
+        pendingOffset = pendingCount = 0;
+        // The session only opened if a codec was agreed on
+        if (codec != null) {
+            handler.onClose();
+        }
+    }
+}
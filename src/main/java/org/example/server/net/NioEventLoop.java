@@ -0,0 +1,155 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// A single selector thread. Every channel registered here is only ever touched from this thread;
+// other threads hand work over through execute().
+public class NioEventLoop extends Thread {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Only touched on the loop thread
+    private final PriorityQueue<ScheduledTask> scheduled = new PriorityQueue<>();
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+    }
+
+    public Selector selector() {
+        return selector;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    // Runs the task on this loop once the delay has passed, at millisecond resolution
+    public void schedule(Runnable task, long delayNanos) {
+        ScheduledTask scheduledTask = new ScheduledTask(task, System.nanoTime() + delayNanos);
+        if (inEventLoop()) {
+            scheduled.add(scheduledTask);
+        } else {
+            execute(() -> scheduled.add(scheduledTask));
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void run() {
+        try {
+            while (running) {
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (!scheduled.isEmpty()) {
+                    long waitNanos = scheduled.peek().deadline - System.nanoTime();
+                    if (waitNanos > 0) {
+                        // Rounded up, so less than a millisecond to go waits instead of spinning on selectNow
+                        selector.select(Math.max(1, (waitNanos + 999_999) / 1_000_000));
+                    } else {
+                        selector.selectNow();
+                    }
+                } else {
+                    selector.select();
+                }
+                runTasks();
+                runScheduledTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ready(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("Error in event loop " + getName() + ": " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((SelectionHandler) key.attachment()).onLoopClosed();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.out.println("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    // A handler that fails only loses its own channel, never the loop and the other channels on it
+    private void ready(SelectionKey key) {
+        SelectionHandler handler = (SelectionHandler) key.attachment();
+        try {
+            handler.onReady(key);
+        } catch (RuntimeException e) {
+            System.out.println("Error handling channel in event loop " + getName() + ": " + e);
+            key.cancel();
+            try {
+                handler.onLoopClosed();
+            } catch (RuntimeException closeError) {
+                System.out.println("Error closing channel in event loop " + getName() + ": " + closeError);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error in event loop task: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        while (!scheduled.isEmpty() && scheduled.peek().deadline - now <= 0) {
+            try {
+                scheduled.poll().task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error in event loop task: " + e.getMessage());
+            }
+        }
+    }
+
+    private static class ScheduledTask implements Comparable<ScheduledTask> {
+        private final Runnable task;
+        private final long deadline;
+
+        ScheduledTask(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+
+    interface SelectionHandler {
+        void onReady(SelectionKey key);
+
+        void onLoopClosed();
+    }
+}
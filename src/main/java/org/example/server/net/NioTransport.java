@@ -0,0 +1,112 @@
+package org.example.server.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageCodec;
+
+// A fixed set of selector threads shared by every listening port; accepted clients are
+// spread round-robin over the loops.
+public class NioTransport implements Transport {
+    private final NioEventLoop[] loops;
+    private final List<MessageCodec> codecs;
+    private final Supplier<OutboundQueue> outboundQueues;
+    private final WriteBatching batching;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioTransport(int threads, List<MessageCodec> codecs, Supplier<OutboundQueue> outboundQueues,
+                        WriteBatching batching) throws IOException {
+        this.codecs = codecs;
+        this.outboundQueues = outboundQueues;
+        this.batching = batching;
+        loops = new NioEventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    @Override
+    public Closeable listen(int port, Function<MessageChannel, SessionHandler> handlers) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        NioEventLoop acceptLoop = nextLoop();
+        acceptLoop.execute(() -> {
+            try {
+                serverChannel.register(acceptLoop.selector(), SelectionKey.OP_ACCEPT, new Acceptor(serverChannel, handlers));
+            } catch (IOException e) {
+                System.out.println("Error listening on port " + port + ": " + e.getMessage());
+            }
+        });
+        return () -> acceptLoop.execute(() -> {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing server socket: " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    private NioEventLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    private class Acceptor implements NioEventLoop.SelectionHandler {
+        private final ServerSocketChannel serverChannel;
+        private final Function<MessageChannel, SessionHandler> handlers;
+
+        Acceptor(ServerSocketChannel serverChannel, Function<MessageChannel, SessionHandler> handlers) {
+            this.serverChannel = serverChannel;
+            this.handlers = handlers;
+        }
+
+        @Override
+        public void onReady(SelectionKey key) {
+            try {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    NioEventLoop loop = nextLoop();
+                    NioConnection connection;
+                    try {
+                        connection = new NioConnection(channel, loop, codecs, outboundQueues.get(), batching, handlers);
+                    } catch (RuntimeException e) {
+                        // Only this client is lost, the port keeps accepting
+                        System.out.println("Error setting up client: " + e);
+                        channel.close();
+                        continue;
+                    }
+                    loop.execute(connection::register);
+                }
+            } catch (IOException e) {
+                System.out.println("Error accepting on port " + serverChannel.socket().getLocalPort() + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onLoopClosed() {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageCodec;
+import org.example.chat.MessageType;
+
+// Frames waiting to be written to one client. Many threads offer, a single writer polls. Only chat
+// TEXT is ever dropped to make room: the client can fetch it again with /history, while a lost
+// control frame such as NAME_ACCEPTED, ERROR or FILE_ACK would leave it waiting for good.
+public class OutboundQueue {
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final OutboundStats stats;
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final Lock lock = new ReentrantLock();
+    // When the oldest queued frame was offered
+    private long firstQueuedNanos;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, OutboundStats stats) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    // Returns false if the queue is full and the client should be disconnected. A dropped new frame
+    // still counts as taken.
+    public boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (frames.size() >= capacity) {
+                if (policy == OverflowPolicy.DISCONNECT) {
+                    stats.disconnected();
+                    return false;
+                }
+                if (policy == OverflowPolicy.COALESCE && removeSuperseded(frame)) {
+                    stats.coalesced();
+                } else if (removeOldestDroppable()) {
+                    stats.dropped();
+                } else if (isDroppable(frame)) {
+                    // Nothing queued may go, so the new message does
+                    stats.dropped();
+                    return true;
+                } else {
+                    // Full of frames the client cannot do without
+                    stats.disconnected();
+                    return false;
+                }
+            }
+            if (frames.isEmpty()) {
+                firstQueuedNanos = System.nanoTime();
+            }
+            frames.add(frame);
+            stats.queued(frames.size());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Frame poll() {
+        lock.lock();
+        try {
+            Frame frame = frames.poll();
+            if (frame != null) {
+                stats.removed(1);
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves frames into the batch while it stays within maxBytes, but always at least one frame into
+    // an empty batch. Returns when the oldest moved frame was queued, or -1 if nothing was moved.
+    public long pollBatch(List<Frame> batch, int maxBytes, MessageCodec codec) throws IOException {
+        int bytes = 0;
+        for (Frame frame : batch) {
+            bytes += frame.length(codec);
+        }
+        lock.lock();
+        try {
+            long queuedAt = firstQueuedNanos;
+            int moved = 0;
+            Frame next;
+            while ((next = frames.peek()) != null) {
+                int length = next.length(codec);
+                if (!batch.isEmpty() && bytes + length > maxBytes) {
+                    break;
+                }
+                batch.add(frames.poll());
+                bytes += length;
+                moved++;
+            }
+            stats.removed(moved);
+            // The exact time of the next frame is unknown, so the remainder counts as queued now
+            firstQueuedNanos = System.nanoTime();
+            return moved > 0 ? queuedAt : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordFlush(int frameCount, long queuedAt) {
+        stats.flushed(frameCount, System.nanoTime() - queuedAt);
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            stats.removed(frames.size());
+            frames.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean removeOldestDroppable() {
+        Iterator<Frame> queued = frames.iterator();
+        while (queued.hasNext()) {
+            if (isDroppable(queued.next())) {
+                queued.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDroppable(Frame frame) {
+        return frame.getMessage().getType() == MessageType.TEXT;
+    }
+
+    private boolean removeSuperseded(Frame frame) {
+        if (!isPresenceSnapshot(frame.getMessage())) {
+            return false;
+        }
+        Iterator<Frame> queued = frames.iterator();
+        while (queued.hasNext()) {
+            if (queued.next().getMessage().getType() == MessageType.PRESENCE) {
+                queued.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A snapshot replaces every presence change before it. Deltas are never dropped: the client would
+    // see the gap and have to ask for the missing changes again.
+    private static boolean isPresenceSnapshot(Message message) {
+        return message.getType() == MessageType.PRESENCE && message.getData() != null && message.getData().startsWith("= ");
+    }
+}
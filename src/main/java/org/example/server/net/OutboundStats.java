@@ -0,0 +1,78 @@
+package org.example.server.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.example.metrics.Histogram;
+
+// Server-wide counters shared by every outbound queue
+public class OutboundStats {
+    private final LongAdder depth = new LongAdder();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    // Frames per socket write
+    private final Histogram batchSize = new Histogram();
+    // Microseconds from the oldest frame of a batch being queued until the batch was written
+    private final Histogram flushLatency = new Histogram();
+
+    void queued(int queueDepth) {
+        depth.increment();
+        if (queueDepth > maxDepth.get()) {
+            maxDepth.accumulateAndGet(queueDepth, Math::max);
+        }
+    }
+
+    void removed(int count) {
+        depth.add(-count);
+    }
+
+    void dropped() {
+        dropped.increment();
+        depth.decrement();
+    }
+
+    void coalesced() {
+        coalesced.increment();
+        depth.decrement();
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    void flushed(int frameCount, long latencyNanos) {
+        batchSize.record(frameCount);
+        flushLatency.record(latencyNanos / 1000);
+    }
+
+    // Frames currently waiting in all queues
+    public long getDepth() {
+        return depth.sum();
+    }
+
+    // Deepest any single queue has been
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    public Histogram getBatchSize() {
+        return batchSize;
+    }
+
+    public Histogram getFlushLatency() {
+        return flushLatency;
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.server.net;
+
+// What a full outbound queue does with one more frame
+public enum OverflowPolicy {
+    // Discard the oldest queued TEXT to make room, or the new one if it is TEXT; a queue holding only
+    // other frames disconnects as DISCONNECT does
+    DROP_OLDEST,
+    // Give up on the client and close its connection
+    DISCONNECT,
+    // Replace a queued frame the new one supersedes (a presence snapshot replaces an older presence
+    // frame), otherwise as DROP_OLDEST
+    COALESCE
+}
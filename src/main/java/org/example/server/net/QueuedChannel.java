@@ -0,0 +1,170 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.example.chat.Connection;
+import org.example.chat.FileTransfer;
+import org.example.chat.Frame;
+import org.example.chat.MessageChannel;
+
+// Decouples senders from a blocking Connection: frames go into a bounded queue and a writer task,
+// scheduled only while there is something to write, drains them to the socket in batches. A slow
+// client then only ever stalls its own writer. Files go into a second lane that the writer only
+// serves, a chunk at a time, while the frame queue is empty.
+public class QueuedChannel implements MessageChannel {
+    private final Connection connection;
+    private final OutboundQueue queue;
+    private final Executor executor;
+    private final WriteBatching batching;
+    private final Queue<FileTransfer> transfers = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closing;
+
+    public QueuedChannel(Connection connection, OutboundQueue queue, Executor executor, WriteBatching batching) {
+        this.connection = connection;
+        this.queue = queue;
+        this.executor = executor;
+        this.batching = batching;
+    }
+
+    @Override
+    public void send(Frame frame) throws IOException {
+        if (closing) {
+            throw new IOException("Connection is closed");
+        }
+        // Encode on the sending thread, not while holding the queue
+        frame.length(connection.getCodec());
+        if (!queue.offer(frame)) {
+            System.out.println("Disconnecting slow client: outbound queue is full");
+            abort();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    @Override
+    public void sendFile(FileTransfer transfer) throws IOException {
+        if (closing || transfers.size() >= FileTransfer.MAX_QUEUED) {
+            transfer.close();
+            throw new IOException(closing ? "Connection is closed" : "Too many file transfers at once");
+        }
+        transfers.add(transfer);
+        scheduleDrain();
+    }
+
+    // Only the first transfer is being sent
+    @Override
+    public void acknowledgeFile(String description, long received) {
+        FileTransfer transfer = transfers.peek();
+        if (transfer != null && transfer.getDescription().equals(description)) {
+            transfer.acknowledge(received);
+            scheduleDrain();
+        }
+    }
+
+    @Override
+    public long getBytesIn() {
+        return connection.getBytesIn();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return connection.getBytesOut();
+    }
+
+    // Pending frames are still written before the socket is closed.
+    @Override
+    public void close() {
+        closing = true;
+        scheduleDrain();
+    }
+
+    @Override
+    public void abort() {
+        closing = true;
+        queue.clear();
+        closeConnection();
+        if (!draining.get()) {
+            // Otherwise the writer drops them when it sees the connection closing
+            closeTransfers();
+        }
+    }
+
+    private void closeConnection() {
+        if (closed.compareAndSet(false, true)) {
+            connection.close();
+        }
+    }
+
+    // The transfer to send a chunk of next, null if there is none or it waits for the receiver
+    private FileTransfer nextTransfer() {
+        FileTransfer transfer;
+        while ((transfer = transfers.peek()) != null && transfer.isCancelled()) {
+            if (transfers.remove(transfer)) {
+                transfer.close();
+            }
+        }
+        return transfer != null && transfer.canSend() ? transfer : null;
+    }
+
+    private void closeTransfers() {
+        FileTransfer transfer;
+        while ((transfer = transfers.poll()) != null) {
+            transfer.close();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        List<Frame> batch = new ArrayList<>();
+        do {
+            try {
+                while (true) {
+                    long queuedAt = queue.pollBatch(batch, batching.getMaxBytes(), connection.getCodec());
+                    if (queuedAt >= 0) {
+                        if (batching.getWindowNanos() > 0) {
+                            // Give a burst the chance to join this write
+                            LockSupport.parkNanos(batching.getWindowNanos());
+                            queue.pollBatch(batch, batching.getMaxBytes(), connection.getCodec());
+                        }
+                        connection.send(batch);
+                        queue.recordFlush(batch.size(), queuedAt);
+                        batch.clear();
+                        continue;
+                    }
+                    // Files not started yet are dropped on close, unlike frames
+                    FileTransfer transfer = closing ? null : nextTransfer();
+                    if (transfer == null) {
+                        break;
+                    }
+                    // One chunk, then whatever frames arrived meanwhile
+                    connection.sendChunk(transfer);
+                    if (!transfer.hasMore()) {
+                        transfers.poll();
+                        transfer.close();
+                    }
+                }
+            } catch (IOException e) {
+                abort();
+            }
+            if (closing) {
+                closeTransfers();
+                closeConnection();
+            }
+            draining.set(false);
+            // Work that arrived after the last poll but before the flag was cleared would otherwise be stranded
+        } while ((!queue.isEmpty() || nextTransfer() != null || closing && !closed.get()) && draining.compareAndSet(false, true));
+    }
+}
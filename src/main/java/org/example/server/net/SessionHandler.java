@@ -0,0 +1,14 @@
+package org.example.server.net;
+
+import java.io.IOException;
+import org.example.chat.Message;
+
+// Protocol logic for one client connection, driven by whichever transport owns the socket.
+// Calls for a single connection never overlap.
+public interface SessionHandler {
+    void onOpen() throws IOException;
+
+    void onMessage(Message message) throws IOException;
+
+    void onClose();
+}
@@ -0,0 +1,285 @@
+package org.example.server.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+
+// Writes every connection of the server to a capture file: when it opened and on which port, each
+// message it sent in, and when it closed, so the traffic can be replayed later (see TrafficReplay).
+// After a header of magic, version and the server's own port, each record is a kind byte, the
+// connection id and the microseconds since the previous record as varints, then for a message its
+// length and binary codec encoding, and for a data frame also the length and bytes of its payload.
+// Records go through one buffer that is flushed every second and when the server exits.
+public class TrafficRecorder implements Closeable {
+    public static final int MAGIC = 0x43484350;
+    public static final int VERSION = 1;
+    public static final byte OPEN = 0;
+    public static final byte MESSAGE = 1;
+    public static final byte DATA = 2;
+    public static final byte CLOSE = 3;
+    private static final BinaryCodec CODEC = new BinaryCodec();
+
+    private final DataOutputStream out;
+    private final Lock writeLock = new ReentrantLock();
+    private final AtomicInteger nextConnectionId = new AtomicInteger(1);
+    private final ScheduledExecutorService flusher;
+    private long lastRecordNanos = System.nanoTime();
+    private long records;
+    private boolean closed;
+
+    public TrafficRecorder(Path path, int serverPort) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(serverPort);
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "traffic-recorder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "traffic-recorder-close"));
+    }
+
+    // Connections accepted on the port are recorded with the given handlers in between
+    public Function<MessageChannel, SessionHandler> track(int port, Function<MessageChannel, SessionHandler> handlers) {
+        return connection -> new RecordedHandler(port, handlers.apply(connection));
+    }
+
+    public long getRecords() {
+        writeLock.lock();
+        try {
+            return records;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void flush() {
+        writeLock.lock();
+        try {
+            if (!closed) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing traffic capture: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flusher.shutdown();
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Error closing traffic capture: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // The value is a port for OPEN and unused otherwise; the message is only for MESSAGE and DATA
+    private void record(byte kind, int connectionId, int port, Message message) {
+        byte[] encoded = message != null ? CODEC.encode(message) : null;
+        byte[] payload = message != null ? message.getPayload() : null;
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            long micros = TimeUnit.NANOSECONDS.toMicros(now - lastRecordNanos);
+            // Keep the remainder so rounding never adds up over many records
+            lastRecordNanos += TimeUnit.MICROSECONDS.toNanos(micros);
+            out.writeByte(payload != null ? DATA : kind);
+            writeVarLong(out, connectionId);
+            writeVarLong(out, micros);
+            if (kind == OPEN) {
+                writeVarLong(out, port);
+            }
+            if (encoded != null) {
+                writeVarLong(out, encoded.length);
+                out.write(encoded);
+            }
+            if (payload != null) {
+                writeVarLong(out, payload.length);
+                out.write(payload);
+            }
+            records++;
+        } catch (IOException e) {
+            System.out.println("Error writing traffic capture, recording stopped: " + e.getMessage());
+            closed = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint in traffic capture");
+    }
+
+    private class RecordedHandler implements SessionHandler {
+        private final int id = nextConnectionId.getAndIncrement();
+        private final int port;
+        private final SessionHandler delegate;
+
+        RecordedHandler(int port, SessionHandler delegate) {
+            this.port = port;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onOpen() throws IOException {
+            record(OPEN, id, port, null);
+            delegate.onOpen();
+        }
+
+        @Override
+        public void onMessage(Message message) throws IOException {
+            record(MESSAGE, id, 0, message);
+            delegate.onMessage(message);
+        }
+
+        @Override
+        public void onClose() {
+            record(CLOSE, id, 0, null);
+            delegate.onClose();
+        }
+    }
+
+    // Reads a capture back one record at a time. A record cut off by a crash ends the capture.
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int serverPort;
+        private long nanos;
+        // The record last returned by next()
+        private byte kind;
+        private int connectionId;
+        private int port;
+        private Message message;
+        private byte[] payload;
+
+        public Reader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                in.close();
+                throw new IOException("Not a traffic capture: " + path);
+            }
+            serverPort = in.readInt();
+        }
+
+        // Port the recording server listened on for new clients
+        public int getServerPort() {
+            return serverPort;
+        }
+
+        // False at the end of the capture
+        public boolean next() throws IOException {
+            int read = in.read();
+            if (read < 0) {
+                return false;
+            }
+            try {
+                kind = (byte) read;
+                connectionId = (int) readVarLong(in);
+                nanos += TimeUnit.MICROSECONDS.toNanos(readVarLong(in));
+                port = kind == OPEN ? (int) readVarLong(in) : 0;
+                message = null;
+                payload = null;
+                if (kind == MESSAGE || kind == DATA) {
+                    byte[] encoded = new byte[(int) readVarLong(in)];
+                    in.readFully(encoded);
+                    message = CODEC.decode(encoded, 0, encoded.length);
+                    if (kind == DATA) {
+                        payload = new byte[(int) readVarLong(in)];
+                        in.readFully(payload);
+                    }
+                } else if (kind != OPEN && kind != CLOSE) {
+                    throw new IOException("Unknown record kind in traffic capture: " + kind);
+                }
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        public byte getKind() {
+            return kind;
+        }
+
+        public int getConnectionId() {
+            return connectionId;
+        }
+
+        // Nanoseconds between the start of the recording and this record
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        // Raw bytes that followed the message in a data frame, null for a plain message
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.example.server.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Function;
+import org.example.chat.MessageChannel;
+
+public interface Transport {
+    // Binds the port before returning, so clients may connect as soon as this call completes.
+    Closeable listen(int port, Function<MessageChannel, SessionHandler> handlers) throws IOException;
+
+    // Stops the threads of the transport once its listeners and connections are closed
+    void shutdown();
+}
@@ -0,0 +1,21 @@
+package org.example.server.net;
+
+// How outbound frames are grouped into one socket write. Frames already queued are always
+// written together up to maxBytes; a non-zero window also waits that long for more to arrive.
+public class WriteBatching {
+    private final int maxBytes;
+    private final long windowNanos;
+
+    public WriteBatching(int maxBytes, long windowNanos) {
+        this.maxBytes = maxBytes;
+        this.windowNanos = windowNanos;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+}
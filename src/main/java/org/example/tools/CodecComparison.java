@@ -0,0 +1,51 @@
+package org.example.tools;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import org.example.chat.*;
+
+// Prints the encoded size and the encode/decode cost of each codec for typical TEXT messages.
+// Run with: gradle compareCodecs
+public class CodecComparison {
+    private static final int WARMUP_ROUNDS = 50_000;
+    private static final int MEASURED_ROUNDS = 200_000;
+    // Keeps the JIT from discarding the measured work
+    private static volatile long blackhole;
+
+    public static void main(String[] args) throws IOException {
+        Message[] samples = {
+                new Message(MessageType.TEXT, "hi", "bob", LocalDateTime.now(), "Chat_20000"),
+                new Message(MessageType.TEXT, "Did anyone see the build failure on main this morning?", "alice", LocalDateTime.now(), "Chat_20000"),
+                new Message(MessageType.TEXT, "x".repeat(500), "a_rather_long_nickname", LocalDateTime.now(), "Chat_20001")
+        };
+        for (String name : MessageCodecs.DEFAULT.split(",")) {
+            MessageCodec codec = MessageCodecs.forName(name);
+            System.out.println("Codec: " + codec.getName());
+            for (Message sample : samples) {
+                measure(codec, sample);
+            }
+        }
+    }
+
+    private static void measure(MessageCodec codec, Message message) throws IOException {
+        byte[] encoded = codec.encode(message);
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += codec.decode(codec.encode(message), 0, encoded.length).getData().length();
+        }
+        long encodeStart = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            sink += codec.encode(message).length;
+        }
+        long encodeNanos = System.nanoTime() - encodeStart;
+        long decodeStart = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            sink += codec.decode(encoded, 0, encoded.length).getData().length();
+        }
+        long decodeNanos = System.nanoTime() - decodeStart;
+        blackhole = sink;
+        System.out.printf("  %4d chars of text: %5d bytes/frame, encode %6d ns, decode %6d ns%n",
+                message.getData().length(), encoded.length + MessageFrames.HEADER_LENGTH,
+                encodeNanos / MEASURED_ROUNDS, decodeNanos / MEASURED_ROUNDS);
+    }
+}
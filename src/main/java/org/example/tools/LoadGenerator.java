@@ -0,0 +1,214 @@
+package org.example.tools;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.example.chat.*;
+import org.example.metrics.Histogram;
+import org.example.server.MainServer;
+import org.example.server.ServerConfig;
+
+// Headless clients for load tests. Simulated users go through the same lobby and room handshake
+// as Client, then send TEXT messages at a fixed rate. Each message carries its send time, so every
+// other member of the room records the end-to-end latency when it arrives.
+// Run with: gradle loadTest --args="--users=1000 --rooms=20 --rate=2 --server-mode=nio"
+public class LoadGenerator {
+    private int port = 12345;
+    private boolean local = true;
+    private int users = 100;
+    private int rooms = 10;
+    private double rate = 1;
+    private int size = 64;
+    private int durationSeconds = 30;
+    // Options for the local MainServer, given as --server-<name>=value
+    private final List<String> serverArgs = new ArrayList<>();
+
+    private final Histogram latencyMicros = new Histogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private volatile boolean measuring;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            generator.set(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    private void set(String name, String value) {
+        if (name.startsWith("server-")) {
+            serverArgs.add("--" + name.substring(7) + "=" + value);
+            return;
+        }
+        switch (name) {
+            case "port" -> port = Integer.parseInt(value);
+            case "local" -> local = Boolean.parseBoolean(value);
+            case "users" -> users = Integer.parseInt(value);
+            case "rooms" -> rooms = Integer.parseInt(value);
+            case "rate" -> rate = Double.parseDouble(value);
+            case "size" -> size = Integer.parseInt(value);
+            case "duration" -> durationSeconds = Integer.parseInt(value);
+            default -> throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private void run() throws Exception {
+        if (local) {
+            serverArgs.add("--port=" + port);
+            new MainServer(ServerConfig.fromArgs(serverArgs.toArray(new String[0]))).start();
+        }
+
+        // The first user of every room creates it, the others join it by its port or id
+        List<SimulatedUser> all = new ArrayList<>();
+        String[] roomKeys = new String[rooms];
+        int[] roomSizes = new int[rooms];
+        long joinStart = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            int room = i % rooms;
+            SimulatedUser user = new SimulatedUser("user" + i, room);
+            if (roomKeys[room] == null) {
+                roomKeys[room] = user.create();
+            } else {
+                user.join(roomKeys[room]);
+            }
+            roomSizes[room]++;
+            all.add(user);
+        }
+        System.out.printf("%d users joined %d rooms in %d ms%n", users, Math.min(users, rooms),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - joinStart));
+        for (SimulatedUser user : all) {
+            user.others = roomSizes[user.room] - 1;
+            new Thread(user::readLoop, user.name + "-reader").start();
+        }
+
+        measuring = true;
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        for (SimulatedUser user : all) {
+            long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos);
+            senders.scheduleAtFixedRate(user::sendText, initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+        }
+        for (int second = 1; second <= durationSeconds; second++) {
+            Thread.sleep(1000);
+            System.out.printf("[%ds] sent=%d received=%d latency(us) %s%n", second, sent.sum(), received.sum(), latencyMicros.summary());
+        }
+        senders.shutdownNow();
+        // Let messages still in flight arrive before the final numbers
+        Thread.sleep(1000);
+        measuring = false;
+
+        System.out.println("Sent: " + sent.sum() + ", received: " + received.sum() + " of " + expected.sum() + " expected deliveries");
+        System.out.println("End-to-end latency (us): " + latencyMicros.summary());
+        for (SimulatedUser user : all) {
+            user.connection.close();
+        }
+    }
+
+    private class SimulatedUser {
+        private final String name;
+        private final int room;
+        private final String padding;
+        private Connection connection;
+        private int others;
+        // Assigned by the room; live messages identify their sender only by it
+        private int id;
+
+        SimulatedUser(String name, int room) {
+            this.name = name;
+            this.room = room;
+            this.padding = "x".repeat(Math.max(0, size - 20));
+        }
+
+        // Creates a room and returns the port or id others use to join it
+        String create() throws IOException {
+            connection = connect(port);
+            expect(MessageType.REQUEST_ACTION);
+            connection.send(new Message(MessageType.CREATE_CHAT, "1"));
+            Message created = expect(MessageType.CHAT_CREATED);
+            enterRoom(created);
+            return String.valueOf(created.getChatRoomId());
+        }
+
+        void join(String key) throws IOException {
+            connection = connect(port);
+            expect(MessageType.REQUEST_ACTION);
+            connection.send(new Message(MessageType.JOIN_CHAT, "2"));
+            expect(MessageType.CHAT_LIST);
+            expect(MessageType.PORT_REQUEST);
+            connection.send(new Message(MessageType.CHAT_SELECTED, key));
+            enterRoom(expect(MessageType.CHAT_SELECTED));
+        }
+
+        private void enterRoom(Message selected) throws IOException {
+            if (selected.getPort() != 0) {
+                // The room is on a room node, which needs the room id
+                connection.close();
+                connection = new Connection(new Socket(selected.getHost(), selected.getPort()));
+                connection.send(new Message(MessageType.CHAT_SELECTED, String.valueOf(selected.getChatRoomId())));
+            }
+            expect(MessageType.NAME_REQUEST);
+            connection.send(new Message(MessageType.USER_NAME, name));
+            id = expect(MessageType.NAME_ACCEPTED).getSenderId();
+        }
+
+        private Message expect(MessageType type) throws IOException {
+            Message message = connection.receive();
+            if (message == null || message.getType() != type) {
+                throw new IOException(name + " expected " + type + " but got "
+                        + (message == null ? "nothing" : message.getType() + " " + message.getData()));
+            }
+            return message;
+        }
+
+        void sendText() {
+            try {
+                connection.send(new Message(MessageType.TEXT, System.nanoTime() + "|" + padding, name));
+                sent.increment();
+                expected.add(others);
+            } catch (IOException e) {
+                System.out.println(name + " failed to send: " + e.getMessage());
+            }
+        }
+
+        void readLoop() {
+            while (true) {
+                Message message = connection.receive();
+                if (message == null) {
+                    return;
+                }
+                if (message.getType() == MessageType.PING) {
+                    try {
+                        connection.send(new Message(MessageType.PONG));
+                    } catch (IOException e) {
+                        return;
+                    }
+                    continue;
+                }
+                if (message.getType() != MessageType.TEXT || message.getSenderId() == id || !measuring) {
+                    continue;
+                }
+                String data = message.getData();
+                long sentAt = Long.parseLong(data, 0, data.indexOf('|'), 10);
+                latencyMicros.record((System.nanoTime() - sentAt) / 1000);
+                received.increment();
+            }
+        }
+    }
+
+    private static Connection connect(int port) throws IOException {
+        return new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+    }
+}
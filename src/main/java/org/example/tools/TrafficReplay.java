@@ -0,0 +1,307 @@
+package org.example.tools;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.example.chat.Connection;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+import org.example.metrics.Histogram;
+import org.example.server.MainServer;
+import org.example.server.ServerConfig;
+import org.example.server.net.TrafficRecorder;
+
+// Drives a server with the traffic of a capture written by a MainServer started with --record=<file>.
+// Every recorded connection is opened again and sends the same messages, at the recorded pace times
+// --speed, or as fast as possible with --speed=0. To keep a replay deterministic, lobby and name
+// answers wait for the server's prompt as the original client did, and the next record waits until
+// a room being created exists, so rooms get the same ids and ports as when they were recorded.
+// Throughput is the rate messages went out; latency is how long the room took to echo a member's
+// own TEXT back to it.
+// Run with: gradle replay --args="--capture=traffic.cap --speed=0 --server-mode=nio"
+public class TrafficReplay {
+    private Path capture;
+    private int port = 12345;
+    private boolean local = true;
+    private double speed = 1;
+    // Options for the local MainServer, given as --server-<name>=value
+    private final List<String> serverArgs = new ArrayList<>();
+
+    // Only used by the thread reading the capture
+    private final Map<Integer, ReplayedConnection> connections = new HashMap<>();
+    private final Histogram echoMicros = new Histogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        TrafficReplay replay = new TrafficReplay();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            replay.set(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        if (replay.capture == null) {
+            throw new IllegalArgumentException("Missing --capture=<file>");
+        }
+        replay.run();
+        System.exit(0);
+    }
+
+    private void set(String name, String value) {
+        if (name.startsWith("server-")) {
+            serverArgs.add("--" + name.substring(7) + "=" + value);
+            return;
+        }
+        switch (name) {
+            case "capture" -> capture = Path.of(value);
+            case "port" -> port = Integer.parseInt(value);
+            case "local" -> local = Boolean.parseBoolean(value);
+            case "speed" -> speed = Double.parseDouble(value);
+            default -> throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private void run() throws Exception {
+        if (local) {
+            serverArgs.add("--port=" + port);
+            new MainServer(ServerConfig.fromArgs(serverArgs.toArray(new String[0]))).start();
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> System.out.printf("[%ds] sent=%d received=%d echo latency(us) %s%n",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), sent.sum(), received.sum(), echoMicros.summary()),
+                1, 1, TimeUnit.SECONDS);
+        long records = 0;
+        long opened = 0;
+        long recordedNanos = 0;
+        try (TrafficRecorder.Reader reader = new TrafficRecorder.Reader(capture)) {
+            while (reader.next()) {
+                records++;
+                recordedNanos = reader.getNanos();
+                if (speed > 0) {
+                    long wait = start + (long) (recordedNanos / speed) - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                int id = reader.getConnectionId();
+                switch (reader.getKind()) {
+                    case TrafficRecorder.OPEN -> {
+                        // Rooms on their own ports keep them, everything else goes to the server's port
+                        int target = reader.getPort() == reader.getServerPort() ? port : reader.getPort();
+                        try {
+                            connections.put(id, new ReplayedConnection(id, target));
+                            opened++;
+                        } catch (IOException e) {
+                            failed.increment();
+                            System.out.println("Connection " + id + " could not connect to port " + target + ": " + e.getMessage());
+                        }
+                    }
+                    case TrafficRecorder.MESSAGE, TrafficRecorder.DATA -> {
+                        ReplayedConnection connection = connections.get(id);
+                        if (connection != null) {
+                            connection.replay(reader.getMessage(), reader.getPayload());
+                            if (reader.getMessage().getType() == MessageType.CREATE_CHAT) {
+                                connection.awaitCreated();
+                            }
+                        }
+                    }
+                    case TrafficRecorder.CLOSE -> {
+                        ReplayedConnection connection = connections.remove(id);
+                        if (connection != null) {
+                            connection.close();
+                        }
+                    }
+                    default -> throw new IOException("Unknown record kind: " + reader.getKind());
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        // Let messages still in flight arrive before the final numbers
+        Thread.sleep(1000);
+        reporter.shutdownNow();
+
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        System.out.println("Replayed " + records + " records of " + opened + " connections in " + elapsedMillis
+                + " ms, recorded over " + TimeUnit.NANOSECONDS.toMillis(recordedNanos) + " ms");
+        System.out.println("Sent: " + sent.sum() + " messages (" + sent.sum() * 1000 / elapsedMillis + "/s), received: "
+                + received.sum() + " TEXT, failed: " + failed.sum());
+        System.out.println("Echo latency (us): " + echoMicros.summary());
+        for (ReplayedConnection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    private static boolean answersPrompt(MessageType type) {
+        return type == MessageType.CREATE_CHAT || type == MessageType.JOIN_CHAT
+                || type == MessageType.CHAT_SELECTED || type == MessageType.USER_NAME;
+    }
+
+    private static boolean isPrompt(MessageType type) {
+        return type == MessageType.REQUEST_ACTION || type == MessageType.PORT_REQUEST || type == MessageType.NAME_REQUEST;
+    }
+
+    private class ReplayedConnection {
+        private final int id;
+        private final Connection connection;
+        // Guards the lobby state below; once in a room nothing waits and the reader stays out of it
+        private final Lock lock = new ReentrantLock();
+        // Messages held back until the server asks for them, in recorded order
+        private final ArrayDeque<Message> waiting = new ArrayDeque<>();
+        private int prompts;
+        private boolean inRoom;
+        private volatile int userId;
+        private volatile boolean failedSend;
+        private final CountDownLatch created = new CountDownLatch(1);
+        // Send times of this member's TEXT messages not yet echoed, oldest first
+        private final ConcurrentLinkedQueue<SentText> texts = new ConcurrentLinkedQueue<>();
+
+        ReplayedConnection(int id, int port) throws IOException {
+            this.id = id;
+            this.connection = new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+            Thread reader = new Thread(this::readLoop, "replay-" + id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void replay(Message message, byte[] payload) {
+            lock.lock();
+            try {
+                if (payload != null && waiting.isEmpty()) {
+                    send(message, payload);
+                    return;
+                }
+                waiting.add(message);
+                sendWaiting();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Called with the lock held
+        private void sendWaiting() {
+            while (!waiting.isEmpty()) {
+                Message next = waiting.peek();
+                if (!inRoom && answersPrompt(next.getType())) {
+                    if (prompts == 0) {
+                        return;
+                    }
+                    prompts--;
+                }
+                send(waiting.poll(), null);
+            }
+        }
+
+        private void send(Message message, byte[] payload) {
+            if (failedSend) {
+                return;
+            }
+            try {
+                if (message.getType() == MessageType.TEXT) {
+                    texts.add(new SentText(System.nanoTime(), message.getData()));
+                }
+                if (payload != null) {
+                    connection.send(message, payload);
+                } else {
+                    connection.send(message);
+                }
+                sent.increment();
+            } catch (IOException e) {
+                failedSend = true;
+                failed.increment();
+                System.out.println("Connection " + id + " failed to send: " + e.getMessage());
+            }
+        }
+
+        // Waits until the room asked for by CREATE_CHAT exists, or the server refused or went away
+        void awaitCreated() throws InterruptedException {
+            if (!created.await(10, TimeUnit.SECONDS)) {
+                System.out.println("Connection " + id + " got no answer to CREATE_CHAT, going on");
+            }
+        }
+
+        void close() {
+            connection.close();
+        }
+
+        private void readLoop() {
+            try {
+                while (true) {
+                    Message message = connection.receive();
+                    if (message == null) {
+                        return;
+                    }
+                    MessageType type = message.getType();
+                    if (type == MessageType.PING) {
+                        try {
+                            connection.send(new Message(MessageType.PONG));
+                        } catch (IOException e) {
+                            return;
+                        }
+                    } else if (type == MessageType.TEXT) {
+                        received.increment();
+                        if (userId != 0 && message.getSenderId() == userId) {
+                            echoed(message.getData());
+                        }
+                    } else if (type == MessageType.CHAT_CREATED || type == MessageType.ERROR) {
+                        created.countDown();
+                    } else if (isPrompt(type) || type == MessageType.NAME_ACCEPTED) {
+                        lock.lock();
+                        try {
+                            if (type == MessageType.NAME_ACCEPTED) {
+                                userId = message.getSenderId();
+                                inRoom = true;
+                            } else {
+                                prompts++;
+                            }
+                            sendWaiting();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            } finally {
+                created.countDown();
+            }
+        }
+
+        // Texts the room rejected are never echoed, so older unmatched ones are dropped on the way
+        private void echoed(String data) {
+            SentText text;
+            while ((text = texts.poll()) != null) {
+                if (Objects.equals(text.data, data)) {
+                    echoMicros.record((System.nanoTime() - text.nanos) / 1000);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class SentText {
+        private final long nanos;
+        private final String data;
+
+        SentText(long nanos, String data) {
+            this.nanos = nanos;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.example.chat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class BinaryCodecTest {
+    private final BinaryCodec codec = new BinaryCodec();
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        // Millisecond precision is all the codec keeps
+        LocalDateTime timestamp = LocalDateTime.of(2024, 10, 1, 18, 30, 15, 123_000_000);
+        Message message = new Message(MessageType.TEXT, "hello", "alice", 7, timestamp, "Chat_1", 20000, "example.org", 12345, 42);
+
+        Message decoded = roundTrip(message);
+
+        assertEquals(MessageType.TEXT, decoded.getType());
+        assertEquals("hello", decoded.getData());
+        assertEquals("alice", decoded.getSender());
+        assertEquals(7, decoded.getSenderId());
+        assertEquals(timestamp, decoded.getTimestamp());
+        assertEquals("Chat_1", decoded.getChatRoom());
+        assertEquals(20000, decoded.getChatRoomId());
+        assertEquals("example.org", decoded.getHost());
+        assertEquals(12345, decoded.getPort());
+        assertEquals(42, decoded.getSequence());
+    }
+
+    @Test
+    void leavesAbsentFieldsOut() throws IOException {
+        byte[] encoded = codec.encode(new Message(MessageType.PING));
+
+        // Type and an empty flags varint
+        assertArrayEquals(new byte[]{(byte) MessageType.PING.ordinal(), 0}, encoded);
+        Message decoded = codec.decode(encoded, 0, encoded.length);
+        assertEquals(MessageType.PING, decoded.getType());
+        assertNull(decoded.getData());
+        assertNull(decoded.getSender());
+        assertNull(decoded.getTimestamp());
+        assertEquals(0, decoded.getSenderId());
+        assertEquals(0, decoded.getSequence());
+    }
+
+    @Test
+    void roundTripsVarIntsAtByteBoundaries() throws IOException {
+        int[] ids = {1, 127, 128, 16383, 16384, (1 << 21) - 1, 1 << 21, (1 << 28) - 1, 1 << 28, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        for (int id : ids) {
+            Message decoded = roundTrip(new Message(MessageType.TEXT, null, null, id, null, null, id));
+            assertEquals(id, decoded.getSenderId(), "sender id " + id);
+            assertEquals(id, decoded.getChatRoomId(), "room id " + id);
+        }
+    }
+
+    @Test
+    void roundTripsVarLongsAtByteBoundaries() throws IOException {
+        long[] sequences = {1, 127, 128, (1L << 35) - 1, 1L << 35, (1L << 56) - 1, 1L << 56, (1L << 63) - 1, -1, Long.MIN_VALUE};
+        for (long sequence : sequences) {
+            assertEquals(sequence, roundTrip(Message.fileAck("file", sequence)).getSequence(), "sequence " + sequence);
+        }
+    }
+
+    @Test
+    void usesOneByteForSmallVarInts() {
+        int withoutId = codec.encode(new Message(MessageType.TEXT, "x")).length;
+        int smallId = codec.encode(new Message(MessageType.TEXT, "x", null, 127, null, null, 0)).length;
+        int largerId = codec.encode(new Message(MessageType.TEXT, "x", null, 128, null, null, 0)).length;
+
+        assertEquals(withoutId + 1, smallId);
+        assertEquals(withoutId + 2, largerId);
+    }
+
+    @Test
+    void roundTripsMultiByteAndEmptyStrings() throws IOException {
+        String text = "Grüße, 你好 🙂";
+        Message decoded = roundTrip(new Message(MessageType.TEXT, text, ""));
+
+        assertEquals(text, decoded.getData());
+        assertEquals("", decoded.getSender());
+    }
+
+    @Test
+    void decodesAtAnOffset() throws IOException {
+        byte[] encoded = codec.encode(new Message(MessageType.TEXT, "inside"));
+        byte[] padded = new byte[encoded.length + 6];
+        System.arraycopy(encoded, 0, padded, 3, encoded.length);
+
+        assertEquals("inside", codec.decode(padded, 3, encoded.length).getData());
+    }
+
+    @Test
+    void rejectsTruncatedFrames() {
+        byte[] encoded = codec.encode(new Message(MessageType.TEXT, "hello", "alice", 300, LocalDateTime.now(), null, 0));
+        for (int length = 0; length < encoded.length; length++) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertThrows(IOException.class, () -> codec.decode(truncated, 0, truncated.length), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsUnknownTypes() {
+        byte[] encoded = {(byte) MessageType.values().length, 0};
+
+        assertThrows(IOException.class, () -> codec.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    void rejectsOverlongVarInts() {
+        byte[] encoded = {(byte) MessageType.TEXT.ordinal(), (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0};
+
+        assertThrows(IOException.class, () -> codec.decode(encoded, 0, encoded.length));
+    }
+
+    private Message roundTrip(Message message) throws IOException {
+        byte[] encoded = codec.encode(message);
+        return codec.decode(encoded, 0, encoded.length);
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MessageCodecsTest {
+    private final MessageCodec binary = MessageCodecs.forName("binary");
+    private final MessageCodec java = MessageCodecs.forName("java");
+
+    @Test
+    void helloListsTheOfferedIdsInOrder() throws IOException {
+        byte[] hello = MessageCodecs.hello(List.of(java, binary));
+
+        assertEquals(MessageCodecs.HELLO_HEADER_LENGTH + 2, hello.length);
+        assertEquals(2, MessageCodecs.readHelloHeader(hello[0], hello[1], hello[2]));
+        assertEquals(JavaSerializationCodec.ID, hello[3]);
+        assertEquals(BinaryCodec.ID, hello[4]);
+    }
+
+    @Test
+    void rejectsAHelloWithoutTheMagic() {
+        assertThrows(IOException.class, () -> MessageCodecs.readHelloHeader((byte) 0xAC, (byte) 0xED, (byte) 1));
+    }
+
+    @Test
+    void choosesTheClientsFirstSupportedPreference() {
+        byte[] hello = MessageCodecs.hello(List.of(java, binary));
+
+        assertSame(java, MessageCodecs.choose(List.of(binary, java), hello, MessageCodecs.HELLO_HEADER_LENGTH, 2));
+        assertSame(binary, MessageCodecs.choose(List.of(binary), hello, MessageCodecs.HELLO_HEADER_LENGTH, 2));
+    }
+
+    @Test
+    void choosesNothingWithoutACommonCodec() {
+        byte[] hello = MessageCodecs.hello(List.of(java));
+
+        assertNull(MessageCodecs.choose(List.of(binary), hello, MessageCodecs.HELLO_HEADER_LENGTH, 1));
+        assertNull(MessageCodecs.choose(List.of(binary, java), hello, MessageCodecs.HELLO_HEADER_LENGTH, 0));
+    }
+
+    @Test
+    void parsesCodecNamesInOrder() {
+        assertEquals(List.of(binary, java), MessageCodecs.parse("binary, JAVA"));
+        assertThrows(IllegalArgumentException.class, () -> MessageCodecs.parse("binary,xml"));
+    }
+
+    @Test
+    void looksCodecsUpById() throws IOException {
+        assertSame(binary, MessageCodecs.forId(BinaryCodec.ID));
+        assertSame(java, MessageCodecs.forId(JavaSerializationCodec.ID));
+        assertThrows(IOException.class, () -> MessageCodecs.forId(MessageCodecs.NONE));
+    }
+
+    @Test
+    void negotiatesOverASocket() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Connection> accepted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Connection.accept(server.accept(), List.of(java));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            try (Connection client = new Connection(new Socket(server.getInetAddress(), server.getLocalPort()), List.of(binary, java));
+                 Connection serverSide = accepted.get(5, TimeUnit.SECONDS)) {
+                assertSame(java, client.getCodec());
+                assertSame(java, serverSide.getCodec());
+
+                client.send(new Message(MessageType.TEXT, "over java", "alice"));
+                Message received = serverSide.receive();
+                assertEquals("over java", received.getData());
+                assertEquals("alice", received.getSender());
+            }
+        }
+    }
+
+    @Test
+    void failsWhenTheServerSupportsNoneOffered() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Void> refused = CompletableFuture.runAsync(() -> {
+                try {
+                    Connection.accept(server.accept(), List.of(binary));
+                } catch (IOException e) {
+                    // Expected: the client offered no supported codec
+                }
+            });
+            assertThrows(IOException.class, () -> new Connection(new Socket(server.getInetAddress(), server.getLocalPort()), List.of(java)));
+            refused.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
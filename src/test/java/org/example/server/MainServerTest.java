@@ -0,0 +1,138 @@
+package org.example.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import org.example.chat.Connection;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Drives a MainServer on loopback through the lobby. The server and its rooms get free ports, and
+// the server is stopped after each test.
+class MainServerTest {
+    private MainServer server;
+    private int port;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void entersAPortRoomOnTheLobbyConnection() throws Exception {
+        int roomPort = freePort();
+        startServer("--mode=nio", "--rooms=ports", "--room-port=" + roomPort);
+
+        try (Connection creator = connect(port); Connection joiner = connect(port)) {
+            Message created = create(creator);
+            assertEquals(roomPort, created.getChatRoomId());
+            assertEquals(MessageType.NAME_REQUEST, creator.receive().getType());
+            enter(creator, "alice");
+
+            joiner.send(new Message(MessageType.JOIN_CHAT, "2"));
+            assertEquals(MessageType.CHAT_LIST, joiner.receive().getType());
+            assertEquals(MessageType.PORT_REQUEST, joiner.receive().getType());
+            joiner.send(new Message(MessageType.CHAT_SELECTED, String.valueOf(roomPort)));
+            Message selected = joiner.receive();
+            assertEquals(MessageType.CHAT_SELECTED, selected.getType());
+            assertEquals(created.getChatRoom(), selected.getChatRoom());
+            assertEquals(MessageType.NAME_REQUEST, joiner.receive().getType());
+            enter(joiner, "bob");
+
+            joiner.send(new Message(MessageType.TEXT, "hi from the lobby connection"));
+            assertEquals("hi from the lobby connection", receiveText(creator).getData());
+        }
+    }
+
+    @Test
+    void entersASharedRoomOnTheLobbyConnection() throws Exception {
+        startServer("--mode=blocking", "--rooms=shared");
+
+        try (Connection creator = connect(port)) {
+            Message created = create(creator);
+            assertEquals("Chat_" + created.getChatRoomId(), created.getChatRoom());
+            assertEquals(MessageType.NAME_REQUEST, creator.receive().getType());
+            enter(creator, "alice");
+
+            creator.send(new Message(MessageType.TEXT, "echo"));
+            assertEquals("echo", receiveText(creator).getData());
+        }
+    }
+
+    @Test
+    void releasesItsPortsWhenStopped() throws Exception {
+        int roomPort = freePort();
+        startServer("--mode=blocking", "--rooms=ports", "--room-port=" + roomPort);
+        try (Connection creator = connect(port)) {
+            create(creator);
+            server.close();
+
+            // The connection is closed along with the room, after what was already on its way
+            Message message;
+            do {
+                message = creator.receive();
+            } while (message != null && message.getType() == MessageType.NAME_REQUEST);
+            assertNull(message);
+        }
+        server = null;
+
+        try (ServerSocket main = new ServerSocket(port); ServerSocket room = new ServerSocket(roomPort)) {
+            assertEquals(port, main.getLocalPort());
+            assertEquals(roomPort, room.getLocalPort());
+        }
+    }
+
+    private void startServer(String... options) throws IOException {
+        port = freePort();
+        String[] args = new String[options.length + 2];
+        args[0] = "--port=" + port;
+        // The presence and history of other members would only get in the way
+        args[1] = "--history-on-join=0";
+        System.arraycopy(options, 0, args, 2, options.length);
+        server = new MainServer(ServerConfig.fromArgs(args));
+        server.start();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return probe.getLocalPort();
+        }
+    }
+
+    static Connection connect(int port) throws IOException {
+        Connection connection = new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+        assertEquals(MessageType.REQUEST_ACTION, connection.receive().getType());
+        return connection;
+    }
+
+    static Message create(Connection connection) throws IOException {
+        connection.send(new Message(MessageType.CREATE_CHAT, "1"));
+        Message created = connection.receive();
+        assertEquals(MessageType.CHAT_CREATED, created.getType());
+        return created;
+    }
+
+    static void enter(Connection connection, String name) throws IOException {
+        connection.send(new Message(MessageType.USER_NAME, name));
+        assertEquals(MessageType.NAME_ACCEPTED, connection.receive().getType());
+    }
+
+    // Skips presence and session messages until the next TEXT
+    static Message receiveText(Connection connection) throws IOException {
+        Message message;
+        do {
+            message = connection.receive();
+            assertNotNull(message, "connection closed");
+        } while (message.getType() != MessageType.TEXT);
+        return message;
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+    @Test
+    void allowsABurstThenAsksToWait() {
+        // One token a second, so none come back while the test runs
+        RateLimiter limiter = new RateLimiter(1, 3);
+
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+
+        long wait = limiter.tryAcquire();
+        assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1), "wait " + wait);
+    }
+
+    @Test
+    void takesNothingWhenItAsksToWait() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        limiter.tryAcquire();
+
+        long first = limiter.tryAcquire();
+        long second = limiter.tryAcquire();
+
+        // A refused attempt would push the next token further out if it took one
+        assertTrue(second <= first, first + " then " + second);
+    }
+
+    @Test
+    void refillsAtTheRate() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(20, 1);
+        assertEquals(0, limiter.tryAcquire());
+        long wait = limiter.tryAcquire();
+        assertTrue(wait > 0);
+
+        TimeUnit.NANOSECONDS.sleep(wait);
+
+        assertEquals(0, limiter.tryAcquire());
+    }
+
+    @Test
+    void refundGivesATokenBack() {
+        RateLimiter limiter = new RateLimiter(1, 2);
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+        assertTrue(limiter.tryAcquire() > 0);
+
+        limiter.refund();
+
+        assertEquals(0, limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire() > 0);
+    }
+
+    @Test
+    void handsOutExactlyTheBurstToConcurrentCallers() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1, 100);
+        AtomicInteger granted = new AtomicInteger();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 50; j++) {
+                        if (limiter.tryAcquire() == 0) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100, granted.get());
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.example.chat.Frame;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.Test;
+
+class RoomPresenceTest {
+    private final RoomPresence presence = new RoomPresence();
+
+    @Test
+    void describesEachChangeInADelta() {
+        presence.add(1, "alice");
+        presence.add(2, "bob");
+        presence.rename(1, "carol");
+        presence.remove(2);
+
+        assertEquals("0 4\n+1 alice\n+2 bob\n~1 carol\n-2 bob", presence.since(0));
+        assertEquals("2 4\n~1 carol\n-2 bob", presence.since(2));
+        assertEquals("4 4", presence.since(4));
+    }
+
+    @Test
+    void ignoresRemovingSomeoneWhoIsNotThere() {
+        presence.add(1, "alice");
+
+        presence.remove(7);
+
+        assertEquals("0 1\n+1 alice", presence.since(0));
+    }
+
+    @Test
+    void takesPendingChangesOnce() {
+        assertFalse(presence.hasPending());
+        assertNull(presence.takePending());
+
+        presence.add(1, "alice");
+        presence.add(2, "bob");
+        assertTrue(presence.hasPending());
+        assertEquals("0 2\n+1 alice\n+2 bob", presence.takePending());
+
+        assertFalse(presence.hasPending());
+        assertNull(presence.takePending());
+
+        presence.remove(1);
+        assertEquals("2 3\n-1 alice", presence.takePending());
+    }
+
+    @Test
+    void answersWithASnapshotOnceChangesWereTrimmed() {
+        presence.add(1, "alice");
+        // Enough renames to push the join out of the kept changes
+        for (int i = 0; i < 1100; i++) {
+            presence.rename(1, "alice" + i);
+        }
+        presence.add(2, "bob");
+
+        assertEquals("= 1102\n+1 alice1099\n+2 bob", presence.since(0));
+        assertTrue(presence.since(1100).startsWith("1100 1102\n"));
+    }
+
+    @Test
+    void answersWithASnapshotForAVersionFromTheFuture() {
+        presence.add(1, "alice");
+
+        assertEquals("= 1\n+1 alice", presence.since(5));
+    }
+
+    @Test
+    void cachesTheSnapshotUntilTheNextChange() {
+        presence.add(1, "alice");
+        Frame first = presence.snapshot();
+
+        assertSame(first, presence.snapshot());
+        assertEquals(MessageType.PRESENCE, first.getMessage().getType());
+        assertEquals("= 1\n+1 alice", first.getMessage().getData());
+
+        presence.add(2, "bob");
+        assertNotSame(first, presence.snapshot());
+        assertEquals("= 2\n+1 alice\n+2 bob", presence.snapshot().getMessage().getData());
+    }
+
+    @Test
+    void listsNamesInJoinOrder() {
+        presence.add(2, "bob");
+        presence.add(1, "alice");
+        presence.rename(2, "carol");
+
+        assertEquals(MessageType.USER_LIST, presence.userList().getMessage().getType());
+        assertEquals("carol, alice", presence.userList().getMessage().getData());
+    }
+}
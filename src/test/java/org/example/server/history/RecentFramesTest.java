@@ -0,0 +1,116 @@
+package org.example.server.history;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.Test;
+
+class RecentFramesTest {
+    private final List<String> sent = new ArrayList<>();
+    private final MessageChannel target = new MessageChannel() {
+        @Override
+        public void send(Frame frame) {
+            sent.add(frame.getMessage().getData());
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    void roundsCapacityUpToAPowerOfTwo() throws IOException {
+        RecentFrames ring = new RecentFrames(5, Integer.MAX_VALUE);
+        appendRange(ring, 1, 8);
+
+        ring.replayLast(100, target);
+
+        assertEquals(List.of("1", "2", "3", "4", "5", "6", "7", "8"), sent);
+    }
+
+    @Test
+    void keepsOnlyTheNewestAfterWrappingAround() throws IOException {
+        RecentFrames ring = new RecentFrames(4, Integer.MAX_VALUE);
+        appendRange(ring, 1, 11);
+
+        assertEquals(11, ring.getNewest());
+        ring.replayLast(10, target);
+
+        assertEquals(List.of("8", "9", "10", "11"), sent);
+    }
+
+    @Test
+    void replaysTheLastCountOldestFirst() throws IOException {
+        RecentFrames ring = new RecentFrames(8, Integer.MAX_VALUE);
+        appendRange(ring, 1, 6);
+
+        ring.replayLast(3, target);
+
+        assertEquals(List.of("4", "5", "6"), sent);
+    }
+
+    @Test
+    void replaysNoMoreThanMaxBytes() throws IOException {
+        Frame sample = frame(1);
+        int frameLength = sample.length(new BinaryCodec());
+        RecentFrames ring = new RecentFrames(8, 2 * frameLength);
+        appendRange(ring, 1, 5);
+
+        ring.replayLast(8, target);
+
+        assertEquals(List.of("4", "5"), sent);
+    }
+
+    @Test
+    void replaysARangeStillInTheRing() throws IOException {
+        RecentFrames ring = new RecentFrames(4, Integer.MAX_VALUE);
+        appendRange(ring, 1, 6);
+
+        assertTrue(ring.replayRange(3, 6, target));
+
+        assertEquals(List.of("4", "5", "6"), sent);
+    }
+
+    @Test
+    void refusesARangeThatWasOverwritten() throws IOException {
+        RecentFrames ring = new RecentFrames(4, Integer.MAX_VALUE);
+        appendRange(ring, 1, 9);
+
+        // 5 was overwritten by 9
+        assertFalse(ring.replayRange(4, 9, target));
+        // Wider than the ring
+        assertFalse(ring.replayRange(0, 9, target));
+    }
+
+    @Test
+    void skipsSequencesNotYetAppended() throws IOException {
+        RecentFrames ring = new RecentFrames(8, Integer.MAX_VALUE);
+        ring.append(1, frame(1));
+        ring.append(3, frame(3));
+
+        ring.replayLast(8, target);
+
+        assertEquals(List.of("1", "3"), sent);
+        sent.clear();
+        assertFalse(ring.replayRange(0, 3, target));
+    }
+
+    private static void appendRange(RecentFrames ring, long first, long last) {
+        for (long sequence = first; sequence <= last; sequence++) {
+            ring.append(sequence, frame(sequence));
+        }
+    }
+
+    private static Frame frame(long sequence) {
+        return new Frame(new Message(MessageType.TEXT, String.valueOf(sequence)));
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.server.history;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RoomLogTest {
+    // A handful of records per segment
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    private final List<String> sent = new ArrayList<>();
+    private final MessageChannel target = new MessageChannel() {
+        @Override
+        public void send(Frame frame) {
+            sent.add(frame.getMessage().getData());
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    void keepsEveryMessageWithoutALimit() throws IOException {
+        try (RoomLog log = RoomLog.open(directory, SEGMENT_SIZE, FsyncPolicy.OS, 0)) {
+            append(log, 100);
+
+            log.replayLast(1000, target);
+        }
+
+        assertEquals(100, sent.size());
+        assertEquals("0", sent.get(0));
+        assertTrue(segmentFiles() > 3);
+    }
+
+    @Test
+    void deletesTheOldestSegmentsOverTheLimit() throws IOException {
+        try (RoomLog log = RoomLog.open(directory, SEGMENT_SIZE, FsyncPolicy.OS, 3)) {
+            append(log, 100);
+            assertEquals(3, segmentFiles());
+            assertEquals(100, log.getNextOffset());
+
+            log.replayLast(1000, target);
+        }
+
+        assertNewestInOrder();
+        assertTrue(sent.size() < 100);
+    }
+
+    @Test
+    void trimsAnExistingLogWhenOpenedWithALowerLimit() throws IOException {
+        try (RoomLog log = RoomLog.open(directory, SEGMENT_SIZE, FsyncPolicy.OS, 0)) {
+            append(log, 100);
+        }
+
+        try (RoomLog log = RoomLog.open(directory, SEGMENT_SIZE, FsyncPolicy.OS, 2)) {
+            assertEquals(2, segmentFiles());
+            assertEquals(100, log.getNextOffset());
+
+            log.replaySince(0, 1000, target);
+        }
+
+        assertNewestInOrder();
+    }
+
+    private void assertNewestInOrder() {
+        assertTrue(!sent.isEmpty());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(String.valueOf(100 - sent.size() + i), sent.get(i));
+        }
+    }
+
+    private static void append(RoomLog log, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            log.append(new Frame(new Message(MessageType.TEXT, String.valueOf(i))));
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).count();
+        }
+    }
+}
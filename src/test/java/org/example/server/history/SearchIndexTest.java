@@ -0,0 +1,116 @@
+package org.example.server.history;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.Test;
+
+class SearchIndexTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 10, 1, 12, 0);
+    // Enough for several sealed segments of 4096 messages to be merged
+    private static final int MESSAGES = 5 * 4096 + 100;
+
+    @Test
+    void splitsTextIntoLowerCaseTerms() {
+        assertEquals(List.of("deploy", "on", "friday", "v2", "ok"), SearchIndex.terms("Deploy on FRIDAY, v2... ok?"));
+    }
+
+    @Test
+    void findsMessagesAcrossMergedSegments() throws Exception {
+        SearchIndex index = indexed(Integer.MAX_VALUE);
+
+        // Every unique term is still found in its own message once its segment was merged
+        for (int i : new int[]{0, 1, 4095, 4096, 8191, 8192, 12288, 16383, 16384, MESSAGES - 1}) {
+            List<Frame> matches = new ArrayList<>();
+            assertEquals(1, index.search(SearchIndex.Query.parse("n" + i), 10, matches), "n" + i);
+            assertEquals(text(i), matches.get(0).getMessage().getData());
+        }
+    }
+
+    @Test
+    void countsAllMatchesButReturnsOnlyTheNewest() throws Exception {
+        SearchIndex index = indexed(Integer.MAX_VALUE);
+        List<Frame> matches = new ArrayList<>();
+
+        assertEquals(MESSAGES / 3 + (MESSAGES % 3 > 0 ? 1 : 0), index.search(SearchIndex.Query.parse("fizz"), 3, matches));
+
+        int newest = (MESSAGES - 1) / 3 * 3;
+        assertEquals(List.of(text(newest), text(newest - 3), text(newest - 6)), data(matches));
+    }
+
+    @Test
+    void intersectsTermsAndSender() throws Exception {
+        SearchIndex index = indexed(Integer.MAX_VALUE);
+        List<Frame> matches = new ArrayList<>();
+
+        // fizz is every third message and alice every other, so together every sixth
+        int total = index.search(SearchIndex.Query.parse("fizz from:Alice"), 2, matches);
+
+        assertEquals((MESSAGES + 5) / 6, total);
+        int newest = (MESSAGES - 1) / 6 * 6;
+        assertEquals(List.of(text(newest), text(newest - 6)), data(matches));
+        // Matched case-insensitively, returned as sent
+        assertEquals("Alice", matches.get(0).getMessage().getSender());
+    }
+
+    @Test
+    void limitsMatchesToATimeRange() throws Exception {
+        SearchIndex index = indexed(Integer.MAX_VALUE);
+        List<Frame> matches = new ArrayList<>();
+        // Message i is i seconds after START
+        SearchIndex.Query query = SearchIndex.Query.parse("fizz since:" + START.plusSeconds(4095) + " until:" + START.plusSeconds(4110));
+
+        // Both ends are included
+        assertEquals(6, index.search(query, 10, matches));
+        assertEquals(List.of(text(4110), text(4107), text(4104), text(4101), text(4098), text(4095)), data(matches));
+    }
+
+    @Test
+    void dropsTheOldestSegmentsOverTheLimit() throws Exception {
+        SearchIndex index = indexed(2 * 4096);
+
+        assertTrue(index.size() <= 2 * 4096, "size " + index.size());
+        assertEquals(0, index.search(SearchIndex.Query.parse("n0"), 10, new ArrayList<>()));
+        assertEquals(1, index.search(SearchIndex.Query.parse("n" + (MESSAGES - 1)), 10, new ArrayList<>()));
+    }
+
+    @Test
+    void treatsAQueryWithOnlyATimeRangeAsEmpty() {
+        assertTrue(SearchIndex.Query.parse("since:2024-10-01T12:00").isEmpty());
+        assertFalse(SearchIndex.Query.parse("from:alice").isEmpty());
+    }
+
+    private static SearchIndex indexed(int maxMessages) throws Exception {
+        SearchIndex index = new SearchIndex(maxMessages);
+        for (int i = 0; i < MESSAGES; i++) {
+            index.add(new Frame(new Message(MessageType.TEXT, text(i), i % 2 == 0 ? "Alice" : "bob", START.plusSeconds(i), null)));
+        }
+        // Indexing happens on a background thread, in the order messages were added
+        SearchIndex.Query last = SearchIndex.Query.parse("n" + (MESSAGES - 1));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (index.search(last, 1, new ArrayList<>()) == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "indexing timed out at " + index.size());
+            Thread.sleep(10);
+        }
+        return index;
+    }
+
+    private static String text(int i) {
+        return "message n" + i + (i % 3 == 0 ? " fizz" : "");
+    }
+
+    private static List<String> data(List<Frame> frames) {
+        List<String> data = new ArrayList<>();
+        for (Frame frame : frames) {
+            data.add(frame.getMessage().getData());
+        }
+        return data;
+    }
+}
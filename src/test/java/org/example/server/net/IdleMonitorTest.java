@@ -0,0 +1,125 @@
+package org.example.server.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageChannel;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class IdleMonitorTest {
+    private static final TimingWheel WHEEL = new TimingWheel(10, 64);
+
+    private final RecordingChannel connection = new RecordingChannel();
+    private final RecordingHandler handler = new RecordingHandler();
+
+    @BeforeAll
+    static void startWheel() {
+        WHEEL.start("test-wheel");
+    }
+
+    @Test
+    void closesASessionThatNeverOpened() {
+        SessionHandler monitored = new IdleMonitor(WHEEL, 100, 200).track(channel -> handler).apply(connection);
+
+        monitored.onClose();
+
+        assertEquals(List.of("close"), handler.calls);
+    }
+
+    @Test
+    void pingsAQuietConnectionThenAbortsIt() throws Exception {
+        IdleMonitor monitor = new IdleMonitor(WHEEL, 50, 150);
+        SessionHandler monitored = monitor.track(channel -> handler).apply(connection);
+
+        monitored.onOpen();
+
+        assertTrue(connection.aborted.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(MessageType.PING), connection.sent);
+        assertEquals(1, monitor.getPings());
+        assertEquals(1, monitor.getEvictions());
+    }
+
+    @Test
+    void keepsAConnectionThatAnswersPings() throws Exception {
+        SessionHandler monitored = new IdleMonitor(WHEEL, 30, 120).track(channel -> handler).apply(connection);
+        monitored.onOpen();
+
+        // Three idle timeouts long, with a PONG well within each
+        for (int i = 0; i < 12; i++) {
+            Thread.sleep(30);
+            monitored.onMessage(new Message(MessageType.PONG));
+        }
+
+        assertFalse(connection.aborted.await(0, TimeUnit.MILLISECONDS));
+        monitored.onClose();
+        // PONGs are the monitor's own business
+        assertEquals(List.of("open", "close"), handler.calls);
+    }
+
+    @Test
+    void answersAPingWithoutPassingItOn() throws Exception {
+        SessionHandler monitored = new IdleMonitor(WHEEL, 1000, 5000).track(channel -> handler).apply(connection);
+        monitored.onOpen();
+
+        monitored.onMessage(new Message(MessageType.PING));
+        monitored.onMessage(new Message(MessageType.TEXT, "hello"));
+        monitored.onClose();
+
+        assertEquals(List.of(MessageType.PONG), connection.sent);
+        assertEquals(List.of("open", "message TEXT", "close"), handler.calls);
+    }
+
+    @Test
+    void passesHandlersThroughWithoutAnIdleTimeout() {
+        SessionHandler monitored = new IdleMonitor(WHEEL, 100, 0).track(channel -> handler).apply(connection);
+
+        assertEquals(handler, monitored);
+    }
+
+    private static class RecordingChannel implements MessageChannel {
+        private final List<MessageType> sent = new CopyOnWriteArrayList<>();
+        private final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public void send(Frame frame) {
+            sent.add(frame.getMessage().getType());
+        }
+
+        @Override
+        public void abort() {
+            aborted.countDown();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class RecordingHandler implements SessionHandler {
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onOpen() {
+            calls.add("open");
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            calls.add("message " + message.getType());
+        }
+
+        @Override
+        public void onClose() {
+            calls.add("close");
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.example.server.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.example.chat.BinaryCodec;
+import org.example.chat.Frame;
+import org.example.chat.Message;
+import org.example.chat.MessageType;
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+    private final OutboundStats stats = new OutboundStats();
+
+    @Test
+    void keepsFramesInOrderBelowCapacity() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DISCONNECT, stats);
+        Frame first = text("1");
+        Frame second = text("2");
+
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void disconnectRefusesTheFrameOverCapacity() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DISCONNECT, stats);
+
+        assertTrue(queue.offer(text("1")));
+        assertTrue(queue.offer(text("2")));
+        assertFalse(queue.offer(text("3")));
+
+        assertEquals(1, stats.getDisconnected());
+        assertEquals("1", queue.poll().getMessage().getData());
+        assertEquals("2", queue.poll().getMessage().getData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void dropOldestMakesRoomForTheNewFrame() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, stats);
+
+        assertTrue(queue.offer(text("1")));
+        assertTrue(queue.offer(text("2")));
+        assertTrue(queue.offer(text("3")));
+
+        assertEquals(1, stats.getDropped());
+        assertEquals("2", queue.poll().getMessage().getData());
+        assertEquals("3", queue.poll().getMessage().getData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void coalesceLetsASnapshotReplaceAnOlderPresenceFrame() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.COALESCE, stats);
+        queue.offer(text("1"));
+        queue.offer(presence("0 1\n+1 alice"));
+        queue.offer(text("2"));
+
+        assertTrue(queue.offer(presence("= 2\n+1 alice\n+2 bob")));
+
+        assertEquals(1, stats.getCoalesced());
+        assertEquals(0, stats.getDropped());
+        assertEquals("1", queue.poll().getMessage().getData());
+        assertEquals("2", queue.poll().getMessage().getData());
+        assertEquals("= 2\n+1 alice\n+2 bob", queue.poll().getMessage().getData());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void coalesceNeverDropsAPresenceDeltaForAnother() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.COALESCE, stats);
+        queue.offer(text("1"));
+        queue.offer(presence("0 1\n+1 alice"));
+
+        // Deltas are not superseded by later ones, so the oldest frame goes instead
+        assertTrue(queue.offer(presence("1 2\n+2 bob")));
+
+        assertEquals(0, stats.getCoalesced());
+        assertEquals(1, stats.getDropped());
+        assertEquals("0 1\n+1 alice", queue.poll().getMessage().getData());
+        assertEquals("1 2\n+2 bob", queue.poll().getMessage().getData());
+    }
+
+    @Test
+    void coalesceDropsTheOldestWithoutPresenceToReplace() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.COALESCE, stats);
+        queue.offer(text("1"));
+        queue.offer(text("2"));
+
+        assertTrue(queue.offer(presence("= 1\n+1 alice")));
+
+        assertEquals(1, stats.getDropped());
+        assertEquals("2", queue.poll().getMessage().getData());
+    }
+
+    @Test
+    void dropOldestNeverDropsControlFrames() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_OLDEST, stats);
+        queue.offer(control(MessageType.FILE_ACK, "1 65536"));
+        queue.offer(text("1"));
+        queue.offer(control(MessageType.NAME_ACCEPTED, "alice"));
+
+        // The oldest TEXT goes, not the acknowledgement before it
+        assertTrue(queue.offer(control(MessageType.ERROR, "no")));
+        assertEquals(1, stats.getDropped());
+
+        // With only control frames queued, a new TEXT is dropped instead
+        assertTrue(queue.offer(text("2")));
+        assertEquals(2, stats.getDropped());
+
+        assertEquals(MessageType.FILE_ACK, queue.poll().getMessage().getType());
+        assertEquals(MessageType.NAME_ACCEPTED, queue.poll().getMessage().getType());
+        assertEquals(MessageType.ERROR, queue.poll().getMessage().getType());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void disconnectsWhenOnlyControlFramesAreQueued() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.COALESCE, stats);
+        queue.offer(control(MessageType.FILE_ACK, "1 65536"));
+        queue.offer(control(MessageType.FILE_ACK, "1 131072"));
+
+        assertFalse(queue.offer(control(MessageType.FILE_ACK, "1 196608")));
+
+        assertEquals(1, stats.getDisconnected());
+        assertEquals(0, stats.getDropped());
+        assertEquals("1 65536", queue.poll().getMessage().getData());
+    }
+
+    @Test
+    void batchesFramesUpToTheByteLimitButAlwaysOne() throws IOException {
+        BinaryCodec codec = new BinaryCodec();
+        OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DISCONNECT, stats);
+        Frame first = text("aaaa");
+        int frameLength = first.length(codec);
+        queue.offer(first);
+        queue.offer(text("bbbb"));
+        queue.offer(text("cccc"));
+
+        List<Frame> batch = new ArrayList<>();
+        assertTrue(queue.pollBatch(batch, 2 * frameLength, codec) >= 0);
+        assertEquals(2, batch.size());
+
+        // A frame larger than the limit still goes out alone
+        batch.clear();
+        assertTrue(queue.pollBatch(batch, 1, codec) >= 0);
+        assertEquals(1, batch.size());
+        assertEquals("cccc", batch.get(0).getMessage().getData());
+
+        batch.clear();
+        assertEquals(-1, queue.pollBatch(batch, 1, codec));
+        assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    void tracksDepth() {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DISCONNECT, stats);
+        queue.offer(text("1"));
+        queue.offer(text("2"));
+        queue.offer(text("3"));
+        queue.poll();
+
+        assertEquals(2, stats.getDepth());
+        assertEquals(3, stats.getMaxDepth());
+        queue.clear();
+        assertEquals(0, stats.getDepth());
+    }
+
+    private static Frame text(String data) {
+        return new Frame(new Message(MessageType.TEXT, data));
+    }
+
+    private static Frame control(MessageType type, String data) {
+        return new Frame(new Message(type, data));
+    }
+
+    private static Frame presence(String data) {
+        return new Frame(new Message(MessageType.PRESENCE, data));
+    }
+}
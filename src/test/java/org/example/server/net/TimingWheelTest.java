@@ -0,0 +1,97 @@
+package org.example.server.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+    private static final long TICK_MILLIS = 10;
+
+    // Four slots span only 40ms, so longer delays take several rounds
+    private final TimingWheel wheel = new TimingWheel(TICK_MILLIS, 4);
+
+    @BeforeEach
+    void start() {
+        wheel.start("test-wheel");
+    }
+
+    @Test
+    void runsATaskNoEarlierThanItsDelay() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        long[] ranAfterNanos = new long[1];
+        long scheduled = System.nanoTime();
+
+        wheel.schedule(() -> {
+            ranAfterNanos[0] = System.nanoTime() - scheduled;
+            ran.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertTrue(ranAfterNanos[0] >= TimeUnit.MILLISECONDS.toNanos(50), "ran after " + ranAfterNanos[0] + "ns");
+    }
+
+    @Test
+    void runsDelaysLongerThanOneTurnAfterSeveralRounds() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        long scheduled = System.nanoTime();
+
+        wheel.schedule(ran::countDown, 130, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - scheduled >= TimeUnit.MILLISECONDS.toNanos(130));
+    }
+
+    @Test
+    void runsTasksInDeadlineOrder() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch ran = new CountDownLatch(3);
+
+        wheel.schedule(() -> {
+            order.add(3);
+            ran.countDown();
+        }, 120, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> {
+            order.add(1);
+            ran.countDown();
+        }, 0, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> {
+            order.add(2);
+            ran.countDown();
+        }, 60, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test
+    void neverRunsACancelledTask() throws InterruptedException {
+        CountDownLatch cancelledRan = new CountDownLatch(1);
+        CountDownLatch laterRan = new CountDownLatch(1);
+
+        TimingWheel.Timeout timeout = wheel.schedule(cancelledRan::countDown, 30, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        wheel.schedule(laterRan::countDown, 80, TimeUnit.MILLISECONDS);
+
+        assertTrue(laterRan.await(2, TimeUnit.SECONDS));
+        assertFalse(cancelledRan.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void keepsRunningAfterATaskThrows() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+
+        wheel.schedule(() -> {
+            throw new IllegalStateException("expected by the test");
+        }, 0, TimeUnit.MILLISECONDS);
+        wheel.schedule(ran::countDown, 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+    }
+}